@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ImageMetricsListener that aggregates the measurements of each stage: number of executions and failures, p50 and p95 of the durations,
+ * total bytes read, written and allocated, and the number of failures for each cause.
+ * Use getSummary or getSummaries to read the values (es. to send them to your telemetry) and reset to start a new period.
+ * <br /><br />
+ * The percentiles are computed on the last durations of each stage (SAMPLES_PER_STAGE), so the memory used does not grow with the number of images.
+ * The class does not depend on the Android framework.
+ */
+public class AggregatingMetricsListener implements ImageMetricsListener {
+    /**
+     * Number of durations kept for each stage to compute the percentiles.
+     */
+    public static final int SAMPLES_PER_STAGE = 512;
+    private final Map<StageMetrics.Stage, StageAggregate> aggregates = new EnumMap<>(StageMetrics.Stage.class);
+
+    @Override
+    public synchronized void onStageCompleted(StageMetrics metrics) {
+        StageAggregate aggregate = aggregates.get(metrics.getStage());
+        if (aggregate == null) {
+            aggregate = new StageAggregate();
+            aggregates.put(metrics.getStage(), aggregate);
+        }
+        aggregate.add(metrics);
+    }
+
+    /**
+     * @return the aggregated values of the stage (with count 0 if the stage has never been executed)
+     */
+    public synchronized Summary getSummary(StageMetrics.Stage stage) {
+        StageAggregate aggregate = aggregates.get(stage);
+        return aggregate != null ? aggregate.toSummary(stage) : new StageAggregate().toSummary(stage);
+    }
+
+    /**
+     * @return the aggregated values of all the stages executed at least once
+     */
+    public synchronized Map<StageMetrics.Stage, Summary> getSummaries() {
+        Map<StageMetrics.Stage, Summary> summaries = new EnumMap<>(StageMetrics.Stage.class);
+        for (Map.Entry<StageMetrics.Stage, StageAggregate> entry : aggregates.entrySet()) {
+            summaries.put(entry.getKey(), entry.getValue().toSummary(entry.getKey()));
+        }
+        return summaries;
+    }
+
+    /**
+     * Delete all the aggregated values.
+     */
+    public synchronized void reset() {
+        aggregates.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("AggregatingMetricsListener{");
+        for (Summary summary : getSummaries().values()) {
+            builder.append("\n  ").append(summary);
+        }
+        return builder.append("\n}").toString();
+    }
+
+    /**
+     * @return the value at the percentile (0-100) of the sorted values, with the nearest-rank method
+     */
+    static long percentile(long[] sortedValues, int count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sortedValues[Math.min(count, Math.max(1, rank)) - 1];
+    }
+
+    private static class StageAggregate {
+        private final long[] durations = new long[SAMPLES_PER_STAGE];
+        private long count;
+        private long errorCount;
+        private long totalDurationNanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private long allocationBytes;
+        private final Map<String, Integer> errorCauses = new HashMap<>();
+
+        private void add(StageMetrics metrics) {
+            durations[(int) (count % SAMPLES_PER_STAGE)] = metrics.getDurationNanos();
+            count++;
+            totalDurationNanos += metrics.getDurationNanos();
+            bytesRead += metrics.getBytesRead();
+            bytesWritten += metrics.getBytesWritten();
+            allocationBytes += metrics.getAllocationBytes();
+            if (metrics.isFailed()) {
+                errorCount++;
+                String cause = metrics.getError().getClass().getName();
+                Integer causeCount = errorCauses.get(cause);
+                errorCauses.put(cause, causeCount == null ? 1 : causeCount + 1);
+            }
+        }
+
+        private Summary toSummary(StageMetrics.Stage stage) {
+            int samples = (int) Math.min(count, SAMPLES_PER_STAGE);
+            long[] sorted = Arrays.copyOf(durations, samples);
+            Arrays.sort(sorted);
+            return new Summary(stage, count, errorCount, count > 0 ? totalDurationNanos / count : 0, percentile(sorted, samples, 50),
+                    percentile(sorted, samples, 95), bytesRead, bytesWritten, allocationBytes, Collections.unmodifiableMap(new HashMap<>(errorCauses)));
+        }
+    }
+
+    /**
+     * Aggregated values of a stage.
+     */
+    public static final class Summary {
+        private final StageMetrics.Stage stage;
+        private final long count;
+        private final long errorCount;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p95Nanos;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long allocationBytes;
+        private final Map<String, Integer> errorCauses;
+
+        private Summary(StageMetrics.Stage stage, long count, long errorCount, long meanNanos, long p50Nanos, long p95Nanos, long bytesRead,
+                        long bytesWritten, long allocationBytes, Map<String, Integer> errorCauses) {
+            this.stage = stage;
+            this.count = count;
+            this.errorCount = errorCount;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.allocationBytes = allocationBytes;
+            this.errorCauses = errorCauses;
+        }
+
+        public StageMetrics.Stage getStage() {
+            return stage;
+        }
+
+        /**
+         * @return the number of executions of the stage, including the failed ones
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        public long getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * @return the median of the last durations of the stage
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * @return the 95th percentile of the last durations of the stage
+         */
+        public long getP95Nanos() {
+            return p95Nanos;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getAllocationBytes() {
+            return allocationBytes;
+        }
+
+        /**
+         * @return the number of failures for each cause (the class name of the exception)
+         */
+        public Map<String, Integer> getErrorCauses() {
+            return errorCauses;
+        }
+
+        @Override
+        public String toString() {
+            return stage + ": count=" + count + ", errors=" + errorCount + ", p50Ms=" + (p50Nanos / 1000000f) + ", p95Ms=" + (p95Nanos / 1000000f)
+                    + ", meanMs=" + (meanNanos / 1000000f) + ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten
+                    + ", allocationBytes=" + allocationBytes + ", errorCauses=" + errorCauses;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gallery.imageselector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Atomic writing of files, used by ImageStore and by GalleryImageSelector for the saved images: the data is written in a temporary file
+ * in the same directory, synced to the disk and then renamed over the file, so a crash during the writing never leaves a corrupted file
+ * (the reader sees the old file or the new one).
+ * <br /><br />
+ * The class does not depend on the Android framework.
+ */
+public final class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    /**
+     * Write the file through the temporary file passed (it must be in the same directory of the file).
+     */
+    static void write(File file, File tempFile, Writer writer) throws IOException {
+        writeSynced(tempFile, writer);
+        rename(tempFile, file);
+    }
+
+    /**
+     * First half of write: write the temporary file and sync it, it is deleted if the writing fails.
+     */
+    static void writeSynced(File tempFile, Writer writer) throws IOException {
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                writer.writeTo(outputStream);
+                outputStream.flush();
+                // the data must be on the disk before the rename, otherwise after a crash the file could be renamed but empty
+                outputStream.getFD().sync();
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Second half of write: rename the temporary file over the file, it is deleted if the rename fails.
+     */
+    static void rename(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("unable to rename " + tempFile + " into " + file);
+        }
+    }
+
+    /**
+     * Writes the content of a file (es. an image into the ImageStore).
+     */
+    public interface Writer {
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide in-memory cache of the decoded saved images, bounded by the number of bytes of the bitmaps and with LRU eviction.
+ * <br /><br />
+ * The entries are keyed by the path of the file, its last modified time and length and the size at which it was decoded (see FileKeyedCache),
+ * so a file modified by someone else will never be served from the cache. GalleryImageSelector invalidates the entries of a file when it is saved or removed.
+ * <br /><br />
+ * The bitmaps returned by the cache are shared, so they must not be recycled or modified.
+ */
+public final class BitmapCache {
+    private static BitmapCache instance;
+    private final FileKeyedCache<Bitmap> cache;
+    // all the bitmaps put in the cache that are still referenced by someone
+    private final Map<Bitmap, Boolean> sharedBitmaps = new WeakHashMap<>();
+
+    private BitmapCache(int maxSizeBytes) {
+        cache = new FileKeyedCache<Bitmap>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * @return the cache used by all the GalleryImageSelector, by default its size is 1/16 of the memory available to the app.
+     */
+    public static synchronized BitmapCache getInstance() {
+        if (instance == null) {
+            instance = new BitmapCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16));
+        }
+        return instance;
+    }
+
+    Bitmap get(File file, int targetSize) {
+        Bitmap bitmap = cache.get(file, targetSize);
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    void put(File file, int targetSize, Bitmap bitmap) {
+        if (bitmap.getAllocationByteCount() <= cache.maxSize()) {
+            synchronized (sharedBitmaps) {
+                sharedBitmaps.put(bitmap, Boolean.TRUE);
+            }
+            cache.put(file, targetSize, bitmap);
+        }
+    }
+
+    /**
+     * Remove all the cached images decoded from the file.
+     */
+    void invalidate(File file) {
+        cache.invalidate(file);
+    }
+
+    /**
+     * @return true if the bitmap has been served by the cache, so it can be still shared (even if evicted) and must not be reused
+     */
+    boolean isShared(Bitmap bitmap) {
+        synchronized (sharedBitmaps) {
+            return sharedBitmaps.containsKey(bitmap);
+        }
+    }
+
+    /**
+     * Release memory following the level passed to onTrimMemory: the cache is emptied when the app is in background or the system
+     * is critically low on memory, otherwise it is reduced to half of its size.
+     *
+     * @param level the level received by ComponentCallbacks2.onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.size() / 2);
+        }
+    }
+
+    /**
+     * Remove all the images from the cache.
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Change the maximum size of the cache, if the cache is larger than the new size the least recently used images will be evicted.
+     *
+     * @param maxSizeBytes the maximum number of bytes of the cached bitmaps
+     */
+    public void setMaxSize(int maxSizeBytes) {
+        cache.resize(maxSizeBytes);
+    }
+
+    /**
+     * @return the current number of bytes of the cached bitmaps
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
+    }
+
+    /**
+     * @return the number of times that an image was found in the cache
+     */
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    /**
+     * @return the number of times that an image was not found in the cache (and so it was decoded from the disk)
+     */
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * @return the number of images removed from the cache to respect its maximum size
+     */
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+}
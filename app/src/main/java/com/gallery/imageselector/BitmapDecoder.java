@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.content.ContentResolver;
+import android.graphics.ImageDecoder;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Decodes the images at the size they will be displayed: first only the bounds of the image are read (inJustDecodeBounds), then the image
+ * is decoded with the inSampleSize computed for the target size, and finally the EXIF orientation and the scale to the exact target size
+ * are applied together, with a single transformation.
+ * This way the full resolution image is never allocated in memory, and the orientation fix does not allocate a second full size image.
+ * <br /><br />
+ * Both the decoded and the transformed bitmaps are taken from the BitmapPool when possible, and the intermediate bitmaps are returned to it.
+ */
+final class BitmapDecoder {
+    // without a thumbnail, an image that is not a JPEG has a preview only if it is at least 4 times larger than the target size
+    private static final int PREVIEW_MIN_SOURCE_SCALE = 4;
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode the image file, with its EXIF orientation applied, so that it covers the target size (a target size <= 0 means no limit on that dimension).
+     *
+     * @return the decoded image or null if the file can not be decoded
+     */
+    static Bitmap decodeFile(String path, int reqWidth, int reqHeight) {
+        long startTime = System.nanoTime();
+        return decode(startTime, path, null, Metrics.fileLength(path), readOrientation(path), reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode a low resolution preview of the image: its EXIF thumbnail, if it has one, otherwise the image decoded for the preview size
+     * (with a large inSampleSize, so it is fast also for huge images). The EXIF orientation is applied in both cases.
+     * <br /><br />
+     * Without a thumbnail the preview is decoded only if it is much faster than the decoding for targetSize: if the image is a JPEG
+     * (decoded directly at a reduced scale) or is much larger than targetSize. The other formats (es. PNG) are decompressed entirely
+     * also at a reduced size, so for an image of about targetSize the preview would cost as much as the image itself.
+     *
+     * @param previewSize the width and height that the preview should cover (the EXIF thumbnail can be smaller)
+     * @param targetSize  the size at which the image will be decoded after the preview
+     * @return the preview or null if the image can not be decoded or the preview would not be faster than the image
+     */
+    static Bitmap decodePreview(String path, int previewSize, int targetSize) {
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            Bitmap thumbnail = exif.hasThumbnail() ? exif.getThumbnailBitmap() : null;
+            if (thumbnail != null) {
+                int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+                return transform(thumbnail, orientation, previewSize, previewSize);
+            }
+        } catch (IOException e) {
+            // no EXIF data
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        boolean jpeg = "image/jpeg".equals(options.outMimeType);
+        boolean muchLarger = Math.min(options.outWidth, options.outHeight) >= (long) targetSize * PREVIEW_MIN_SOURCE_SCALE;
+        if (options.outWidth <= 0 || !(jpeg || muchLarger)) {
+            return null;
+        }
+        return decodeFile(path, previewSize, previewSize);
+    }
+
+    /**
+     * Like decodeFile, but the image is read from a seekable file descriptor (es. the one of a content Uri opened with
+     * ContentResolver.openFileDescriptor), so it does not need to be copied into a file first.
+     *
+     * @param length the size of the image in bytes (ParcelFileDescriptor.getStatSize), used only for the metrics
+     * @return the decoded image or null if the image can not be decoded
+     */
+    static Bitmap decodeFileDescriptor(FileDescriptor fileDescriptor, long length, int reqWidth, int reqHeight) throws IOException {
+        long startTime = System.nanoTime();
+        // the descriptor could have been read before (es. for a preview)
+        rewind(fileDescriptor);
+        int orientation = readOrientation(fileDescriptor);
+        rewind(fileDescriptor);
+        return decode(startTime, null, fileDescriptor, length, orientation, reqWidth, reqHeight);
+    }
+
+    /**
+     * Decode the image of the content Uri with ImageDecoder, that applies the EXIF orientation and reads also from the Uris that
+     * can not be opened as a seekable file descriptor (es. a pipe).
+     *
+     * @return the decoded image
+     * @throws IOException if the image can not be read or decoded
+     */
+    @RequiresApi(Build.VERSION_CODES.P)
+    static Bitmap decodeUri(ContentResolver contentResolver, Uri uri, final int reqWidth, final int reqHeight) throws IOException {
+        long startTime = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            bitmap = ImageDecoder.decodeBitmap(ImageDecoder.createSource(contentResolver, uri), new ImageDecoder.OnHeaderDecodedListener() {
+                @Override
+                public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                    decoder.setTargetSampleSize(SampleSize.calculate(info.getSize().getWidth(), info.getSize().getHeight(), reqWidth, reqHeight));
+                    // software and mutable, so the final scale can be applied and the bitmap can be returned to the BitmapPool
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                    decoder.setMutableRequired(true);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            Metrics.report(StageMetrics.Stage.DECODE, startTime, 0, null, e);
+            throw e;
+        }
+        Metrics.report(StageMetrics.Stage.DECODE, startTime, 0, bitmap, null);
+        // the EXIF orientation has already been applied by ImageDecoder, only the final scale is left
+        return transform(bitmap, Orientation.NORMAL, reqWidth, reqHeight);
+    }
+
+    // decodes from the path or, if it is null, from the file descriptor
+    private static Bitmap decode(long startTime, String path, FileDescriptor fileDescriptor, long length, int orientation, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(path, fileDescriptor, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Metrics.report(StageMetrics.Stage.DECODE, startTime, length, null, new IOException("unable to decode " + (path != null ? path : "the file descriptor")));
+            return null;
+        }
+        boolean swap = Orientation.swapsDimensions(orientation);
+        int orientedWidth = swap ? options.outHeight : options.outWidth;
+        int orientedHeight = swap ? options.outWidth : options.outHeight;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = SampleSize.calculate(orientedWidth, orientedHeight, reqWidth, reqHeight);
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.getInstance().getForDecode(sampledByteCount(options.outWidth, options.outHeight, options.inSampleSize));
+        Bitmap bitmap;
+        try {
+            bitmap = decode(path, fileDescriptor, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap can not be reused for this image
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decode(path, fileDescriptor, options);
+        }
+        Metrics.report(StageMetrics.Stage.DECODE, startTime, length, bitmap, bitmap == null ? new IOException("unable to decode " + (path != null ? path : "the file descriptor")) : null);
+        return transform(bitmap, orientation, reqWidth, reqHeight);
+    }
+
+    // BitmapFactory restores the offset of the file descriptor after the decode, so the same descriptor can be decoded twice (bounds and pixels)
+    private static Bitmap decode(String path, FileDescriptor fileDescriptor, BitmapFactory.Options options) {
+        if (path != null) {
+            return BitmapFactory.decodeFile(path, options);
+        } else {
+            return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+        }
+    }
+
+    /**
+     * @return the number of bytes of an ARGB_8888 image of the passed size decoded with inSampleSize (rounding up, like the decoders can do)
+     */
+    static int sampledByteCount(int width, int height, int inSampleSize) {
+        int sampledWidth = (width + inSampleSize - 1) / inSampleSize;
+        int sampledHeight = (height + inSampleSize - 1) / inSampleSize;
+        return sampledWidth * sampledHeight * 4;
+    }
+
+    /**
+     * Read the EXIF orientation of the image file.
+     *
+     * @return the orientation, or ExifInterface.ORIENTATION_NORMAL if the file has not EXIF data or it can not be read
+     */
+    static int readOrientation(String path) {
+        try {
+            return new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Like readOrientation(path), but from a seekable file descriptor, the offset of the descriptor is moved (see rewind).
+     */
+    static int readOrientation(FileDescriptor fileDescriptor) {
+        try {
+            return new ExifInterface(fileDescriptor).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Move the offset of the file descriptor back to the start of the file, es. after the EXIF data have been read from it.
+     */
+    static void rewind(FileDescriptor fileDescriptor) throws IOException {
+        try {
+            Os.lseek(fileDescriptor, 0, OsConstants.SEEK_SET);
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Apply the EXIF orientation (rotations, flips, transpose and transverse) and scale down the bitmap to the smallest size that covers
+     * the target size, with a single transformation that allocates (or takes from the BitmapPool) only the output bitmap.
+     * If the bitmap is transformed the original one is returned to the BitmapPool, so it must be owned by the caller.
+     *
+     * @param orientation the EXIF orientation of the bitmap
+     * @return the transformed bitmap, or the original one if it does not need to be transformed
+     */
+    static Bitmap transform(Bitmap bitmap, int orientation, int reqWidth, int reqHeight) {
+        Bitmap transformed = transformCopy(bitmap, orientation, reqWidth, reqHeight);
+        if (transformed != bitmap) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+        return transformed;
+    }
+
+    /**
+     * Like transform, but the original bitmap is left untouched (so it can be still used by the caller).
+     */
+    static Bitmap transformCopy(Bitmap bitmap, int orientation, int reqWidth, int reqHeight) {
+        if (bitmap == null) {
+            return null;
+        }
+        long startTime = System.nanoTime();
+        boolean swap = Orientation.swapsDimensions(orientation);
+        int orientedWidth = swap ? bitmap.getHeight() : bitmap.getWidth();
+        int orientedHeight = swap ? bitmap.getWidth() : bitmap.getHeight();
+        float scale = SampleSize.scaleToCover(orientedWidth, orientedHeight, reqWidth, reqHeight);
+        if (!Orientation.isTransformed(orientation) && scale >= 1) {
+            return bitmap;
+        }
+        int width = Math.max(1, Math.round(orientedWidth * scale));
+        int height = Math.max(1, Math.round(orientedHeight * scale));
+        Bitmap.Config config = bitmap.getConfig() != null && !BitmapPool.isHardware(bitmap) ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap transformed = BitmapPool.getInstance().get(width, height, config);
+        transformed.setHasAlpha(bitmap.hasAlpha());
+        Matrix matrix = new Matrix();
+        matrix.setValues(Orientation.matrixValues(orientation, bitmap.getWidth(), bitmap.getHeight(), scale));
+        new Canvas(transformed).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        Metrics.report(StageMetrics.Stage.ORIENTATION, startTime, 0, transformed, null);
+        return transformed;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+/**
+ * Process-wide pool of bitmaps reused by GalleryImageSelector as BitmapFactory.Options.inBitmap and as output of the transformations
+ * (orientation, scale), so repeated selections of images do not allocate new bitmaps and do not cause GC pauses.
+ * <br /><br />
+ * The pool is bounded by the number of bytes of the pooled bitmaps (by default 1/32 of the memory available to the app), and
+ * it should be trimmed when the system is low on memory, calling GalleryImageSelector.onTrimMemory from onTrimMemory of the Application or the Activity.
+ */
+public final class BitmapPool {
+    private static BitmapPool instance;
+    private final SizeClassPool<Bitmap> pool;
+
+    private BitmapPool(long maxSizeBytes) {
+        pool = new SizeClassPool<Bitmap>(maxSizeBytes) {
+            @Override
+            protected int capacityOf(Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void onEvicted(Bitmap bitmap) {
+                bitmap.recycle();
+            }
+        };
+    }
+
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 32);
+        }
+        return instance;
+    }
+
+    /**
+     * @return a pooled bitmap reconfigured to the size and config passed and cleared, or a new bitmap if the pool has not a suitable one
+     */
+    Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = pool.acquire(width * height * bytesPerPixel(config), null);
+        if (bitmap != null) {
+            try {
+                bitmap.reconfigure(width, height, config);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                bitmap.recycle();
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * @return a pooled bitmap with a capacity of at least requiredBytes, to use as inBitmap, or null if the pool has not a suitable one
+     */
+    Bitmap getForDecode(int requiredBytes) {
+        return pool.acquire(requiredBytes, null);
+    }
+
+    /**
+     * Return to the pool a bitmap that is not used anymore (it must not be referenced by anyone else), the bitmaps that can not
+     * be reused (immutable, recycled or hardware) are ignored.
+     */
+    void put(Bitmap bitmap) {
+        if (bitmap != null && !bitmap.isRecycled() && bitmap.isMutable() && bitmap.getConfig() != null && !isHardware(bitmap)) {
+            pool.release(bitmap);
+        }
+    }
+
+    /**
+     * Release memory following the level passed to onTrimMemory: the pool is emptied when the app is in background or the system
+     * is critically low on memory, otherwise it is reduced to half of its maximum size.
+     *
+     * @param level the level received by ComponentCallbacks2.onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            pool.trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            pool.trimToSize(pool.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Remove and recycle all the pooled bitmaps.
+     */
+    public void clear() {
+        pool.trimToSize(0);
+    }
+
+    /**
+     * @param maxSizeBytes the maximum number of bytes of the pooled bitmaps
+     */
+    public void setMaxSize(long maxSizeBytes) {
+        pool.setMaxSize(maxSizeBytes);
+    }
+
+    /**
+     * @return the current number of bytes of the pooled bitmaps
+     */
+    public long size() {
+        return pool.size();
+    }
+
+    public long maxSize() {
+        return pool.maxSize();
+    }
+
+    /**
+     * @return the number of times that a pooled bitmap was reused
+     */
+    public int hitCount() {
+        return pool.hitCount();
+    }
+
+    /**
+     * @return the number of times that no pooled bitmap was suitable, so a new one was allocated
+     */
+    public int missCount() {
+        return pool.missCount();
+    }
+
+    public int evictionCount() {
+        return pool.evictionCount();
+    }
+
+    // Bitmap.Config.HARDWARE exists only from API 26, reading it on older versions throws NoSuchFieldError
+    static boolean isHardware(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getConfig() == Bitmap.Config.HARDWARE;
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                // RGBA_F16 exists only from API 26
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16 ? 8 : 4;
+        }
+    }
+}
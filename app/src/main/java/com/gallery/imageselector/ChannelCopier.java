@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Copies the picked images into the cache of the app.
+ * <br /><br />
+ * When the source is a file (so it is seekable and has a known size) the copy is done with FileChannel.transferTo, that lets the kernel
+ * move the bytes without copying them in the Java heap, otherwise the bytes are copied through a large direct buffer, reused by each thread.
+ * Both the strategies write only the bytes actually read, report the progress and can be cancelled by the CopyListener.
+ */
+final class ChannelCopier {
+    static final int BUFFER_SIZE = 256 * 1024;
+    // maximum number of bytes moved by a single transferTo, so the progress is reported and the cancellation checked regularly
+    static final long TRANSFER_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private ChannelCopier() {
+    }
+
+    /**
+     * Copy size bytes of the source file, starting from its current position, into the destination channel.
+     *
+     * @param listener it can be null
+     * @return the number of bytes copied, it is smaller than size if the source ends before
+     * @throws CancellationException if the listener cancels the copy
+     */
+    static long copy(FileChannel source, WritableByteChannel destination, long size, CopyListener listener) throws IOException {
+        long position = source.position();
+        long copied = 0;
+        while (copied < size) {
+            long transferred = source.transferTo(position + copied, Math.min(TRANSFER_CHUNK_SIZE, size - copied), destination);
+            if (transferred <= 0) {
+                break;
+            }
+            copied += transferred;
+            notifyProgress(listener, copied, size);
+        }
+        return copied;
+    }
+
+    /**
+     * Copy all the bytes of the source channel into the destination channel, through a reusable direct buffer.
+     *
+     * @param totalBytes the number of bytes of the source if known, or -1
+     * @param listener   it can be null
+     * @return the number of bytes copied
+     * @throws CancellationException if the listener cancels the copy
+     */
+    static long copy(ReadableByteChannel source, WritableByteChannel destination, long totalBytes, CopyListener listener) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        buffer.clear();
+        long copied = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                copied += destination.write(buffer);
+            }
+            buffer.clear();
+            notifyProgress(listener, copied, totalBytes);
+        }
+        return copied;
+    }
+
+    private static void notifyProgress(CopyListener listener, long copiedBytes, long totalBytes) {
+        if (listener != null && !listener.onProgress(copiedBytes, totalBytes)) {
+            throw new CancellationException("copy cancelled after " + copiedBytes + " bytes");
+        }
+    }
+
+    interface CopyListener {
+        /**
+         * Called after each block of bytes copied.
+         *
+         * @param copiedBytes the number of bytes copied until now
+         * @param totalBytes  the total number of bytes to copy, or -1 if it is not known
+         * @return true to continue the copy, false to cancel it
+         */
+        boolean onProgress(long copiedBytes, long totalBytes);
+    }
+}
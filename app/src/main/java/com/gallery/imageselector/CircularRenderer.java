@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Build;
+
+/**
+ * Renders the circular image shown in the ImageView once, at the size of the view, instead of clipping it with a BitmapShader at every
+ * frame like RoundedBitmapDrawable does. On API 26+ the rendered image can be moved in a HARDWARE bitmap, so it is kept only in the GPU memory.
+ */
+final class CircularRenderer {
+    private CircularRenderer() {
+    }
+
+    /**
+     * Render the image scaled to cover a size x size square, centered and clipped in a circle, with a transparent background.
+     *
+     * @return a new ARGB_8888 software bitmap (taken from the BitmapPool when possible)
+     */
+    static Bitmap render(Bitmap source, int size) {
+        Bitmap output = BitmapPool.getInstance().get(size, size, Bitmap.Config.ARGB_8888);
+        output.setHasAlpha(true);
+        float scale = Math.max((float) size / source.getWidth(), (float) size / source.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        matrix.postTranslate((size - source.getWidth() * scale) / 2f, (size - source.getHeight() * scale) / 2f);
+        BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(matrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(shader);
+        new Canvas(output).drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        return output;
+    }
+
+    /**
+     * On API 26+ copy the rendered image in a HARDWARE bitmap and return the software one to the BitmapPool, on older versions
+     * (or if the copy fails) return the software bitmap.
+     */
+    static Bitmap toHardware(Bitmap rendered) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Bitmap hardware = rendered.copy(Bitmap.Config.HARDWARE, false);
+            if (hardware != null) {
+                BitmapPool.getInstance().put(rendered);
+                return hardware;
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Decode a persisted rendered image, directly in a HARDWARE bitmap if requested and supported.
+     *
+     * @return the rendered image, or null if the file can not be decoded
+     */
+    static Bitmap decodeRendered(String path, boolean hardware) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (hardware && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            options.inPreferredConfig = Bitmap.Config.HARDWARE;
+        } else {
+            options.inMutable = true;
+        }
+        return BitmapFactory.decodeFile(path, options);
+    }
+}
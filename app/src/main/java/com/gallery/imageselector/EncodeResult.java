@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Result of the encoding of a saved image, useful to tune the SaveOptions for different device classes.
+ */
+public final class EncodeResult {
+    private final SaveOptions.Format format;
+    private final int quality;
+    private final long sizeBytes;
+    private final long encodeTimeNanos;
+    private final int attempts;
+    private final boolean withinBudget;
+
+    EncodeResult(SaveOptions.Format format, int quality, long sizeBytes, long encodeTimeNanos, int attempts, boolean withinBudget) {
+        this.format = format;
+        this.quality = quality;
+        this.sizeBytes = sizeBytes;
+        this.encodeTimeNanos = encodeTimeNanos;
+        this.attempts = attempts;
+        this.withinBudget = withinBudget;
+    }
+
+    /**
+     * @return the format actually written (it can differ from the one set in SaveOptions, es. WEBP_LOSSLESS is written in PNG below Android 10)
+     */
+    public SaveOptions.Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the quality used for the saved image (it can be lower than the one set in SaveOptions to respect the maximum number of bytes)
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * @return the number of bytes of the saved image
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return the total time spent encoding the image, including all the attempts of the quality search
+     */
+    public long getEncodeTimeNanos() {
+        return encodeTimeNanos;
+    }
+
+    /**
+     * @return the number of times the image was encoded to find the quality that respects the maximum number of bytes
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return false if the saved image is larger than the maximum number of bytes set in SaveOptions
+     */
+    public boolean isWithinBudget() {
+        return withinBudget;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodeResult{format=" + format + ", quality=" + quality + ", sizeBytes=" + sizeBytes + ", encodeTimeMs=" + (encodeTimeNanos / 1000000f)
+                + ", attempts=" + attempts + ", withinBudget=" + withinBudget + "}";
+    }
+}
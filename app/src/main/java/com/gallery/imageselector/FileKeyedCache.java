@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gallery.imageselector;
+
+import androidx.collection.LruCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * LRU cache of the values decoded from files (used by BitmapCache for the bitmaps), bounded by the size of the values returned by sizeOf.
+ * <br /><br />
+ * The entries are keyed by the path of the file, its last modified time and length and the size at which it was decoded, so a file
+ * modified by someone else will never be served from the cache.
+ * <br /><br />
+ * The class does not depend on the Android framework (androidx LruCache is plain Java), so its lookups can be measured by the benchmarks.
+ */
+abstract class FileKeyedCache<V> {
+    private final LruCache<String, V> cache;
+    // the keys in the cache, so contains and invalidate do not copy the whole cache with snapshot()
+    private final Set<String> keys = new HashSet<>();
+
+    /**
+     * @param maxSize the maximum sum of the sizes of the values
+     */
+    FileKeyedCache(int maxSize) {
+        cache = new LruCache<String, V>(maxSize) {
+            @Override
+            protected int sizeOf(String key, V value) {
+                return FileKeyedCache.this.sizeOf(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, V oldValue, V newValue) {
+                // newValue is not null if the value has been replaced, the key is still in the cache
+                if (newValue == null) {
+                    synchronized (keys) {
+                        keys.remove(key);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the size of the value, in the same unit of maxSize (es. bytes)
+     */
+    protected abstract int sizeOf(V value);
+
+    V get(File file, int targetSize) {
+        return cache.get(createKey(file, targetSize));
+    }
+
+    void put(File file, int targetSize, V value) {
+        String key = createKey(file, targetSize);
+        synchronized (keys) {
+            keys.add(key);
+        }
+        // added before the put, the put can evict it immediately if the value is larger than the cache
+        cache.put(key, value);
+    }
+
+    /**
+     * @return true if the value decoded from the file at the target size is in the cache (without counting a hit or a miss)
+     */
+    boolean contains(File file, int targetSize) {
+        String key = createKey(file, targetSize);
+        synchronized (keys) {
+            return keys.contains(key);
+        }
+    }
+
+    /**
+     * Remove all the values decoded from the file.
+     */
+    void invalidate(File file) {
+        String prefix = file.getAbsolutePath() + "|";
+        List<String> fileKeys = new ArrayList<>();
+        synchronized (keys) {
+            for (String key : keys) {
+                if (key.startsWith(prefix)) {
+                    fileKeys.add(key);
+                }
+            }
+        }
+        for (String key : fileKeys) {
+            cache.remove(key);
+            synchronized (keys) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    void evictAll() {
+        cache.evictAll();
+    }
+
+    void trimToSize(int maxSize) {
+        cache.trimToSize(maxSize);
+    }
+
+    void resize(int maxSize) {
+        cache.resize(maxSize);
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    int maxSize() {
+        return cache.maxSize();
+    }
+
+    int hitCount() {
+        return cache.hitCount();
+    }
+
+    int missCount() {
+        return cache.missCount();
+    }
+
+    int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    static String createKey(File file, int targetSize) {
+        return file.getAbsolutePath() + "|" + file.lastModified() + "|" + file.length() + "|" + targetSize;
+    }
+}
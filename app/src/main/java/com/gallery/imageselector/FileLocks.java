@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.io.File;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read-write locks for the files of the library: the reads and the writes of the same file are serialized (many reads can run
+ * together), while the operations on different files run in parallel (unless their paths fall in the same stripe).
+ * The class does not depend on the Android framework.
+ */
+final class FileLocks {
+    private static final int STRIPES = 32;
+    private static final ReadWriteLock[] locks = new ReadWriteLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    private FileLocks() {
+    }
+
+    /**
+     * @return the lock of the file, the same for all the File objects with the same absolute path
+     */
+    static ReadWriteLock forFile(File file) {
+        return locks[stripeOf(file.getAbsolutePath())];
+    }
+
+    static int stripeOf(String path) {
+        int hash = path.hashCode();
+        // spreads the high bits, the paths of the same directory differ only at the end
+        hash ^= (hash >>> 16);
+        return (hash & 0x7FFFFFFF) % STRIPES;
+    }
+}
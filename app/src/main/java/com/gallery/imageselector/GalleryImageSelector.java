@@ -21,13 +21,13 @@ import android.content.ClipData;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Rect;
 import android.net.Uri;
-import android.provider.MediaStore;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.Toast;
@@ -40,14 +40,25 @@ import androidx.core.graphics.drawable.RoundedBitmapDrawable;
 import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
 import androidx.fragment.app.Fragment;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.Console;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 /**
  * The GalleryImageSelector is a tool for pick an image from gallery, crop it and save it in an internal file that can be accessed from
@@ -101,20 +112,110 @@ import java.io.OutputStream;
  * saved automatically at the end of the crop, if you want instead to save the image in another moment (maybe after an error check for other data)
  * you can mark the save parameter of onActivityResult false and use galleryImageSelector.saveImage() and UserImageContainer will save the last cropped image.
  * The saved image can be accessed with "new File(context.getFilesDir(), "user_image");" or with the static method GalleryImageSelector.getSavedImage(context).
+ * <br /><br /><br />
+ * All the disk and codec work (loading of the saved image, copy of the picked image, decode of the cropped image and saving) is executed
+ * in background by an ImagePipeline, and the results are delivered on the main thread. By default all the GalleryImageSelector share
+ * the same ImagePipeline, which uses a few background threads (the writes of the same file are still executed one at a time), if you want to use your own Executor create an ImagePipeline with it
+ * and pass it to the constructor or to GalleryImageSelector.setDefaultPipeline before creating the GalleryImageSelector.
  */
 public class GalleryImageSelector {
+    /**
+     * Maximum width and height at which the images are decoded when the size of the ImageView is not known (es. in getSavedImage(context)).
+     */
+    public static final int DEFAULT_MAX_IMAGE_DIMENSION = 1024;
+    /**
+     * Maximum total size in bytes of the images saved with a key (see setImageKey), used when getImageStore creates the store.
+     */
+    public static final long DEFAULT_IMAGE_STORE_MAX_SIZE = 32 * 1024 * 1024;
+    /**
+     * The picked image is cropped by an external app (the gallery or another app that supports com.android.camera.action.CROP), this is the default.
+     */
+    public static final int CROP_MODE_EXTERNAL = 0;
+    /**
+     * The picked image is cropped by the library, without user interaction, using the rectangle returned by the CropRectProvider
+     * (by default the largest centered square). Only the cropped region is decoded, at the size of the ImageView.
+     */
+    public static final int CROP_MODE_BUILT_IN = 1;
+    /**
+     * CropRectProvider that returns the largest square in the center of the image.
+     */
+    public static final CropRectProvider CENTER_SQUARE = new CropRectProvider() {
+        @Override
+        public Rect getCropRect(int imageWidth, int imageHeight) {
+            int size = Math.min(imageWidth, imageHeight);
+            int left = (imageWidth - size) / 2;
+            int top = (imageHeight - size) / 2;
+            return new Rect(left, top, left + size, top + size);
+        }
+    };
     private final String DEFAULT_IMAGE = "default";
     private final String CUSTOM_IMAGE = "custom";
     private static final String TEMP_PHOTO_DIRECTORY = "temporary_images";
-    private static final String TEMP_PICKED_PHOTO_FILE = "temporary_picked_holder.jpg";
-    private static final String TEMP_CROPPED_PHOTO_FILE = "temporary_cropped_holder.jpg";
-    private static int PICK_IMAGE = 1;
-    private static int CROP_IMAGE = 2;
+    private static final String VARIANTS_DIRECTORY = "user_image_variants";
+    private static final String CIRCULAR_RENDERS_DIRECTORY = "user_image_circular";
+    private static final String SELECTED_IMAGES_DIRECTORY = "selected_images";
+    private static final String IMAGE_STORE_DIRECTORY = "user_images";
+    private static final int NO_PREVIEW = 0;
+    // the preview is decoded at 1/8 of the size of the ImageView
+    private static final int PREVIEW_SIZE_DIVISOR = 8;
+    private static final String TEMP_SAVE_SUFFIX = ".tmp";
+    private static final String TEMP_PICKED_PREFIX = "picked_";
+    private static final String TEMP_CROPPED_PREFIX = "cropped_";
+    // the temporary files older than this are left by a process that has been killed, a pending crop can not be so old
+    private static final long STALE_TEMP_FILE_AGE = 24 * 60 * 60 * 1000;
+    // the request codes are in the lower 16 bits (required by Fragment.startActivityForResult), above the small values usually used by the apps
+    private static final int REQUEST_CODE_BASE = 0x4000;
+    private static final RequestCodeRegistry requestCodes = new RequestCodeRegistry(REQUEST_CODE_BASE);
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+    private static final AtomicBoolean staleTempFilesDeleted = new AtomicBoolean(false);
+    private static ImagePipeline defaultPipeline;
+    private static ImagePipeline parallelPipeline;
+    private static ImageStore imageStore;
+    // the writes (saves and removes) waiting for each file, and the last images saved in each file
+    private static final Map<File, FileWrites> fileWrites = new HashMap<>();
+    private static final Map<File, SavedImage> savedImages = new HashMap<>();
     private ImageView imageView;
     private Bitmap image;
+    private Bitmap renderedImage;
     private Activity activity;
     private Fragment fragment;
     private String authority;
+    private ImagePipeline pipeline;
+    private int maxImageDimension = DEFAULT_MAX_IMAGE_DIMENSION;
+    private SaveOptions saveOptions = SaveOptions.DEFAULT;
+    private OnImageSavedListener onImageSavedListener;
+    private OnCopyProgressListener onCopyProgressListener;
+    private int cropMode = CROP_MODE_EXTERNAL;
+    private int[] variantSizesDp = new int[0];
+    // the images that are being saved, with the number of saves of each one that have not released it yet
+    private final Map<Bitmap, Integer> savingImages = new IdentityHashMap<>();
+    private CropRectProvider cropRectProvider = CENTER_SQUARE;
+    private boolean preRenderCircular = false;
+    private boolean useHardwareBitmaps = false;
+    private boolean persistCircularRender = false;
+    private long cropStartTime = 0;
+    private String imageKey;
+    private boolean decodeFromUri = true;
+    private boolean progressivePreview = false;
+    // the loads of the image to show are numbered, so a preview is shown only if its load is the current one and it has not ended yet
+    private int displayGeneration = 0;
+    private int endedGeneration = 0;
+    private Bitmap previewImage;
+    private Drawable drawableBeforePreview;
+    private OnMultipleImagesListener onMultipleImagesListener;
+    private int pickImageRequestCode;
+    private int cropImageRequestCode;
+    // the request codes of this GalleryImageSelector can be assigned to another one when its activity is destroyed
+    private final RequestCodeRegistry.Owner requestCodeOwner = new RequestCodeRegistry.Owner() {
+        @Override
+        public boolean isReleased() {
+            return activity.isDestroyed();
+        }
+    };
+    // the temporary files of the crop in progress (null if the GalleryImageSelector has been recreated during the crop)
+    private File pendingPickedFile;
+    private File pendingCroppedFile;
+    private final List<ImagePipeline.Request> multipleImagesRequests = new ArrayList<>();
 
     /**
      * In this constructor you have to pass the ImageView that will contain the image, the current activity, and if you are using a Fragment and you want to override onActivityResult in that fragment
@@ -132,24 +233,54 @@ public class GalleryImageSelector {
      * @param authority         the authority name that you chosen in the manifest (see the tutorial in the documentation of the class)
      */
     public GalleryImageSelector(ImageView image, @NonNull final Activity activity, @Nullable final Fragment fragment, int defaultImageResId, String authority) {
+        this(image, activity, fragment, defaultImageResId, authority, getDefaultPipeline());
+    }
+
+    /**
+     * Same of the other constructor, but the disk and codec work will be executed by the ImagePipeline passed, instead of the default one.
+     *
+     * @param pipeline the ImagePipeline that will execute the loading, decoding and saving of the image.
+     */
+    public GalleryImageSelector(ImageView image, @NonNull final Activity activity, @Nullable final Fragment fragment, final int defaultImageResId, String authority, @NonNull ImagePipeline pipeline) {
         this.imageView = image;
         this.activity = activity;
         this.fragment = fragment;
         this.authority = authority;
+        this.pipeline = pipeline;
+        // each GalleryImageSelector has its own request codes, preferably derived from the id of the ImageView so they do not change when
+        // the activity is recreated, the registry assigns another pair if they are used by a GalleryImageSelector alive
+        int preferredPair = image.getId() != View.NO_ID ? image.getId() : instanceCount.incrementAndGet();
+        this.pickImageRequestCode = requestCodes.acquire(preferredPair, requestCodeOwner);
+        this.cropImageRequestCode = pickImageRequestCode + 1;
+        if (staleTempFilesDeleted.compareAndSet(false, true)) {
+            final File tempDirectory = new File(activity.getCacheDir(), TEMP_PHOTO_DIRECTORY);
+            pipeline.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    deleteStaleTempFiles(tempDirectory);
+                    return null;
+                }
+            }, null);
+        }
 
         //user image initialization
-        Bitmap imageBitmap = getBitmapFromFile(new File(activity.getFilesDir(), "user_image"));
-        if (imageBitmap != null) {
-            // get the user image and set it as the image
-            RoundedBitmapDrawable circlularImage = RoundedBitmapDrawableFactory.create(activity.getResources(), imageBitmap);
-            circlularImage.setCircular(true);
-            imageView.setImageDrawable(circlularImage);
-            imageView.setTag(CUSTOM_IMAGE);
-            this.image = circlularImage.getBitmap();
-        } else {
+        imageView.setTag(DEFAULT_IMAGE);
+        final File userImageFile = new File(activity.getFilesDir(), "user_image");
+        if (!userImageFile.exists()) {
             imageView.setImageResource(defaultImageResId); //insert the default image in drawable and set it here in imageView
-            imageView.setTag(DEFAULT_IMAGE);
         }
+        // the ImageView keeps its current image (that should be the default one) until the saved image is loaded,
+        // the loading starts after the constructor returns, so the settings set right after the constructor (es. setImageKey) are applied to it.
+        // If the activity has been recreated while the user was in the gallery or in the crop app, onActivityResult is called in the meantime:
+        // its job is bound to the ImageView and must not be cancelled by the loading of the old image
+        pipeline.runOnCallbackExecutor(new Runnable() {
+            @Override
+            public void run() {
+                if (!GalleryImageSelector.this.pipeline.isBound(imageView) && (imageKey != null || userImageFile.exists())) {
+                    loadSavedImage(defaultImageResId);
+                }
+            }
+        });
         imageView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -169,22 +300,39 @@ public class GalleryImageSelector {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         if (which == 0) {
-                            Intent pickIntent = new Intent("android.intent.action.PICK");
+                            Intent pickIntent;
+                            if (onMultipleImagesListener != null) {
+                                // ACTION_PICK is not supported with multiple selection by many galleries
+                                pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                                pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                                pickIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+                            } else {
+                                pickIntent = new Intent("android.intent.action.PICK");
+                            }
                             pickIntent.setType("image/*");
 
                             if (fragment != null) {
-                                fragment.startActivityForResult(pickIntent, PICK_IMAGE);
+                                fragment.startActivityForResult(pickIntent, pickImageRequestCode);
                             } else {
-                                activity.startActivityForResult(pickIntent, PICK_IMAGE);
+                                activity.startActivityForResult(pickIntent, pickImageRequestCode);
                             }
                         } else {
+                            // a pending load (and its preview) must not replace the default image
+                            GalleryImageSelector.this.pipeline.cancel(imageView);
+                            endPreview(startDisplay(), false);
                             // insert the default image in the imageView
                             imageView.setImageResource(defaultImageResId);
                             imageView.setTag(DEFAULT_IMAGE);
+                            Bitmap previousImage = GalleryImageSelector.this.image;
                             GalleryImageSelector.this.image = null;
+                            releaseImage(previousImage);
+                            BitmapPool.getInstance().put(GalleryImageSelector.this.renderedImage);
+                            GalleryImageSelector.this.renderedImage = null;
                             // delete the previous saved image
-                            File file = new File(activity.getFilesDir(), "user_image");
-                            file.delete();
+                            // (after the saves of the file that are running, see enqueueWrite)
+                            String key = imageKey;
+                            File file = key != null ? getImageStore(activity).fileOf(key) : new File(activity.getFilesDir(), "user_image");
+                            enqueueWrite(GalleryImageSelector.this.pipeline, file, new PendingRemove(key, file));
                         }
                     }
                 });
@@ -207,213 +355,1411 @@ public class GalleryImageSelector {
      * @param data
      * @param saveImage   if you want to save the image in this method or not
      */
-    public void onActivityResult(int requestCode, int resultCode, Intent data, boolean saveImage) {
-        if (requestCode == PICK_IMAGE && resultCode == Activity.RESULT_OK && data != null && data.getData() != null) {
-            //copyFile the result into cache
-            copyImageUriIntoFile(data.getData(), getTempPickedFile());
-            //start crop
-            Intent intent = new Intent("com.android.camera.action.CROP");
-            intent.setDataAndTypeAndNormalize(getTempPickedUri(), "image/*");
-            intent.putExtra("crop", "true");
-            intent.putExtra("aspectX", 1);
-            intent.putExtra("aspectY", 1);
-            intent.putExtra("outputX", imageView.getWidth());
-            intent.putExtra("outputY", imageView.getHeight());
-            intent.putExtra("scaleUpIfNeeded", true);
-            intent.putExtra("noFaceDetection", true);
-            intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            intent.putExtra("output", getTempCroppedUri());
-            intent.setClipData(ClipData.newRawUri("output", getTempCroppedUri()));
-            if (fragment != null) {
-                fragment.startActivityForResult(intent, CROP_IMAGE);
-            } else {
-                activity.startActivityForResult(intent, CROP_IMAGE);
-            }
+    public void onActivityResult(int requestCode, int resultCode, final Intent data, final boolean saveImage) {
+        if (requestCode == pickImageRequestCode && resultCode == Activity.RESULT_OK && data != null && onMultipleImagesListener != null) {
+            //multiple selection: every image is processed in parallel, without crop, and the results are sent to the listener
+            processMultipleImages(data);
 
-        } else if (requestCode == CROP_IMAGE && resultCode == Activity.RESULT_OK && data != null) {
-            Bitmap image = null;
-            File tempFile = getTempCroppedFile();
+        } else if (requestCode == pickImageRequestCode && resultCode == Activity.RESULT_OK && data != null && data.getData() != null && cropMode == CROP_MODE_BUILT_IN) {
+            //crop the result (in background) directly from its Uri, or from a copy in the cache, without the round trip to an external crop app
+            final Uri pickedUri = data.getData();
+            final int targetSize = getTargetSize();
+            final CropRectProvider cropRectProvider = this.cropRectProvider;
+            final boolean fromUri = decodeFromUri;
+            final int generation = startDisplay();
+            final boolean preview = progressivePreview && targetSize > 0;
+            // the preview and the cropped image are decoded from the same BitmapRegionDecoder
+            final RegionCropper.PreviewListener previewListener = new RegionCropper.PreviewListener() {
+                @Override
+                public void onPreview(Bitmap previewImage) {
+                    postPreview(previewImage, generation);
+                }
+            };
+            pipeline.submit(imageView, new ImagePipeline.Job<DisplayedImage>() {
+                @Override
+                public DisplayedImage run(ImagePipeline.Request request) throws IOException {
+                    ParcelFileDescriptor fileDescriptor = fromUri ? openSeekableFileDescriptor(pickedUri) : null;
+                    if (fileDescriptor != null) {
+                        // the region is decoded directly from the Uri, without the copy
+                        try {
+                            return prepareForDisplay(RegionCropper.crop(fileDescriptor.getFileDescriptor(), fileDescriptor.getStatSize(), cropRectProvider, targetSize,
+                                    preview ? getPreviewSize(targetSize) : 0, previewListener), targetSize);
+                        } finally {
+                            fileDescriptor.close();
+                        }
+                    }
+                    File pickedFile = createTempFile(TEMP_PICKED_PREFIX + pickImageRequestCode + "_");
+                    try {
+                        copyImageUriIntoFile(pickedUri, pickedFile, request);
+                        return prepareForDisplay(RegionCropper.crop(pickedFile.getAbsolutePath(), cropRectProvider, targetSize,
+                                preview ? getPreviewSize(targetSize) : 0, previewListener), targetSize);
+                    } finally {
+                        pickedFile.delete();
+                    }
+                }
+            }, new SelectedImageCallback(saveImage, generation));
 
-            if (tempFile != null && tempFile.exists()) {
-                String path = tempFile.getAbsolutePath();
+        } else if (requestCode == pickImageRequestCode && resultCode == Activity.RESULT_OK && data != null && data.getData() != null) {
+            //copyFile the result into cache (in background), then start crop
+            final Uri pickedUri = data.getData();
+            pipeline.submit(imageView, new ImagePipeline.Job<File>() {
+                @Override
+                public File run(ImagePipeline.Request request) throws IOException {
+                    File pickedFile = createTempFile(TEMP_PICKED_PREFIX + pickImageRequestCode + "_");
+                    try {
+                        copyImageUriIntoFile(pickedUri, pickedFile, request);
+                    } catch (IOException e) {
+                        pickedFile.delete();
+                        throw e;
+                    }
+                    return pickedFile;
+                }
+            }, new ImagePipeline.Callback<File>() {
+                @Override
+                public void onSuccess(File pickedFile) {
+                    startCrop(pickedFile);
+                }
 
-                image = BitmapFactory.decodeFile(path);
-                tempFile.delete();
-            }
+                @Override
+                public void onFailure(Exception e) {
+                    e.printStackTrace();
+                    Toast.makeText(activity, "Error during image selection, use another gallery to select it", Toast.LENGTH_LONG).show();
+                }
+            });
 
-            if (image == null && data.getData() != null) {  //nel caso non sia stata salvata nel file
-                String[] filePathColumn = {MediaStore.Images.Media.DATA};
-                Cursor cursor = activity.getContentResolver().query(data.getData(), filePathColumn, null, null, null);
-                if (cursor != null) {
-                    cursor.moveToFirst();
-                    int columnIndex = cursor.getColumnIndex(filePathColumn[0]);
-                    String picturePath = cursor.getString(columnIndex);
-                    cursor.close();
-                    // withdrawal of the selected image
-                    image = BitmapFactory.decodeFile(picturePath);
-                    // to prevent rotation bug
+        } else if (requestCode == cropImageRequestCode && resultCode == Activity.RESULT_OK && data != null) {
+            reportExternalCrop(null);
+            final int targetSize = getTargetSize();
+            final int generation = startDisplay();
+            final int previewGeneration = progressivePreview && targetSize > 0 ? generation : NO_PREVIEW;
+            final File pickedFile = pendingPickedFile;
+            final File croppedFile = pendingCroppedFile;
+            pendingPickedFile = null;
+            pendingCroppedFile = null;
+            pipeline.submit(imageView, new ImagePipeline.Job<DisplayedImage>() {
+                @Override
+                public DisplayedImage run(ImagePipeline.Request request) throws IOException {
                     try {
-                        image = modifyOrientation(image, picturePath);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        // if the GalleryImageSelector has been recreated during the crop its temporary files are found by their names
+                        File tempFile = croppedFile != null ? croppedFile : findLatestTempFile(TEMP_CROPPED_PREFIX + cropImageRequestCode + "_");
+                        return prepareForDisplay(decodeCroppedImage(data, tempFile, targetSize, previewGeneration, request), targetSize);
+                    } finally {
+                        deleteTempFiles(pickedFile, TEMP_PICKED_PREFIX + pickImageRequestCode + "_");
                     }
                 }
+            }, new SelectedImageCallback(saveImage, generation));
+
+        } else if (requestCode == cropImageRequestCode) {
+            reportExternalCrop(new CancellationException("the crop has not returned an image"));
+            final File pickedFile = pendingPickedFile;
+            final File croppedFile = pendingCroppedFile;
+            pendingPickedFile = null;
+            pendingCroppedFile = null;
+            pipeline.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    deleteTempFiles(pickedFile, TEMP_PICKED_PREFIX + pickImageRequestCode + "_");
+                    deleteTempFiles(croppedFile, TEMP_CROPPED_PREFIX + cropImageRequestCode + "_");
+                    return null;
+                }
+            }, null);
+        }
+    }
+
+    private void processMultipleImages(Intent data) {
+        final List<Uri> uris = new ArrayList<>();
+        ClipData clipData = data.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                if (clipData.getItemAt(i).getUri() != null) {
+                    uris.add(clipData.getItemAt(i).getUri());
+                }
             }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+
+        // a new selection cancels the images of the previous one not processed yet
+        for (ImagePipeline.Request request : multipleImagesRequests) {
+            request.cancel();
+        }
+        multipleImagesRequests.clear();
 
+        final OnMultipleImagesListener listener = onMultipleImagesListener;
+        final int targetSize = maxImageDimension;
+        final SaveOptions options = saveOptions;
+        final File outputDirectory = new File(activity.getFilesDir(), SELECTED_IMAGES_DIRECTORY);
+        final String selectionId = String.valueOf(System.currentTimeMillis());
+        final boolean fromUri = decodeFromUri;
+        final int[] completed = {0, 0};  // succeeded, failed (accessed only on the main thread)
+        if (uris.isEmpty()) {
+            listener.onAllImagesProcessed(0, 0);
+            return;
+        }
+        ImagePipeline parallelPipeline = getParallelPipeline();
+        for (int i = 0; i < uris.size(); i++) {
+            final int index = i;
+            final Uri uri = uris.get(i);
+            multipleImagesRequests.add(parallelPipeline.submit(new ImagePipeline.Job<EncodeResult>() {
+                @Override
+                public EncodeResult run(ImagePipeline.Request request) throws IOException {
+                    outputDirectory.mkdirs();
+                    return processSelectedImage(uri, new File(outputDirectory, selectionId + "_" + index), targetSize, options, fromUri, request);
+                }
+            }, new ImagePipeline.Callback<EncodeResult>() {
+                @Override
+                public void onSuccess(EncodeResult result) {
+                    completed[0]++;
+                    listener.onImageProcessed(index, uri, new File(outputDirectory, selectionId + "_" + index), result);
+                    notifyIfAllProcessed();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    completed[1]++;
+                    listener.onImageFailed(index, uri, e);
+                    notifyIfAllProcessed();
+                }
+
+                private void notifyIfAllProcessed() {
+                    if (completed[0] + completed[1] == uris.size()) {
+                        listener.onAllImagesProcessed(completed[0], completed[1]);
+                    }
+                }
+            }));
+        }
+    }
+
+    // executed in parallel by the parallel pipeline: decode (with orientation and downscale) and encode of one of the selected images
+    private EncodeResult processSelectedImage(Uri uri, File outputFile, int targetSize, SaveOptions options, boolean fromUri, ImagePipeline.Request request) throws IOException {
+        Bitmap image = fromUri ? decodeUri(uri, targetSize) : null;
+        if (image == null) {
+            image = copyAndDecodeUri(uri, targetSize, request);
+        }
+        try {
+            EncodeResult result = saveBitmapToFile(outputFile, image, options);
+            if (result == null) {
+                throw new IOException("unable to save " + uri);
+            }
+            return result;
+        } finally {
+            BitmapPool.getInstance().put(image);
+        }
+    }
+
+    // executed in background: decodes the image of the Uri without copying it, it returns null if the Uri can not be read directly
+    // (it is not seekable and ImageDecoder is not available), in this case the image must be copied into a file with copyAndDecodeUri
+    private Bitmap decodeUri(Uri uri, int targetSize) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return BitmapDecoder.decodeUri(activity.getContentResolver(), uri, targetSize, targetSize);
+        }
+        ParcelFileDescriptor fileDescriptor = openSeekableFileDescriptor(uri);
+        if (fileDescriptor == null) {
+            return null;
+        }
+        try {
+            Bitmap image = BitmapDecoder.decodeFileDescriptor(fileDescriptor.getFileDescriptor(), fileDescriptor.getStatSize(), targetSize, targetSize);
+            if (image == null) {
+                throw new IOException("unable to decode " + uri);
+            }
+            return image;
+        } finally {
+            fileDescriptor.close();
+        }
+    }
+
+    // executed in background: copies the image of the Uri into a temporary file and decodes it
+    private Bitmap copyAndDecodeUri(Uri uri, int targetSize, ImagePipeline.Request request) throws IOException {
+        File pickedFile = createTempFile(TEMP_PICKED_PREFIX);
+        try {
+            copyImageUriIntoFile(uri, pickedFile, request);
+            Bitmap image = BitmapDecoder.decodeFile(pickedFile.getAbsolutePath(), targetSize, targetSize);
+            if (image == null) {
+                throw new IOException("unable to decode " + uri);
+            }
+            return image;
+        } finally {
+            pickedFile.delete();
+        }
+    }
+
+    // returns null if the Uri can not be opened as a file descriptor or if it is not seekable (es. a pipe)
+    private ParcelFileDescriptor openSeekableFileDescriptor(Uri uri) throws IOException {
+        ParcelFileDescriptor fileDescriptor;
+        try {
+            fileDescriptor = activity.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (fileDescriptor != null && fileDescriptor.getStatSize() < 0) {
+            fileDescriptor.close();
+            return null;
+        }
+        return fileDescriptor;
+    }
+
+    // shows the selected and cropped image, and saves it if requested
+    private class SelectedImageCallback implements ImagePipeline.Callback<DisplayedImage> {
+        private final boolean saveImage;
+        private final int generation;
+
+        private SelectedImageCallback(boolean saveImage, int generation) {
+            this.saveImage = saveImage;
+            this.generation = generation;
+        }
+
+        @Override
+        public void onSuccess(DisplayedImage image) {
             if (image != null) {
                 // insertion of the selected image in the imageView
-                RoundedBitmapDrawable circlularImage = RoundedBitmapDrawableFactory.create(activity.getResources(), image);
-                circlularImage.setCircular(true);
-                imageView.setImageDrawable(circlularImage);
-                imageView.setTag(CUSTOM_IMAGE);
-                this.image = image;
+                showImage(image);
+                endPreview(generation, false);
                 if (saveImage) {
                     // saving the selected image
-                    saveBitmapToFile(new File(activity.getFilesDir(), "user_image"), image);
+                    saveImage();
                 }
             } else {
+                endPreview(generation, true);
                 Toast.makeText(activity, "Error during image selection, use another gallery to select it", Toast.LENGTH_LONG).show();
             }
         }
+
+        @Override
+        public void onFailure(Exception e) {
+            e.printStackTrace();
+            endPreview(generation, true);
+            Toast.makeText(activity, "Error during image selection, use another gallery to select it", Toast.LENGTH_LONG).show();
+        }
+    }
+
+    // the external crop is measured from the start of the crop app to its result (so it includes the time spent by the user)
+    private void reportExternalCrop(Throwable error) {
+        if (cropStartTime != 0) {
+            Metrics.report(StageMetrics.Stage.CROP, cropStartTime, 0, 0, 0, 0, 0, error);
+            cropStartTime = 0;
+        }
+    }
+
+    private void startCrop(File pickedFile) {
+        File croppedFile;
+        try {
+            croppedFile = createTempFile(TEMP_CROPPED_PREFIX + cropImageRequestCode + "_");
+        } catch (IOException e) {
+            e.printStackTrace();
+            pickedFile.delete();
+            Toast.makeText(activity, "Error during image selection, use another gallery to select it", Toast.LENGTH_LONG).show();
+            return;
+        }
+        pendingPickedFile = pickedFile;
+        pendingCroppedFile = croppedFile;
+        Uri croppedUri = getTempFileUri(croppedFile);
+        cropStartTime = System.nanoTime();
+        Intent intent = new Intent("com.android.camera.action.CROP");
+        intent.setDataAndTypeAndNormalize(getTempFileUri(pickedFile), "image/*");
+        intent.putExtra("crop", "true");
+        intent.putExtra("aspectX", 1);
+        intent.putExtra("aspectY", 1);
+        intent.putExtra("outputX", imageView.getWidth());
+        intent.putExtra("outputY", imageView.getHeight());
+        intent.putExtra("scaleUpIfNeeded", true);
+        intent.putExtra("noFaceDetection", true);
+        intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        intent.putExtra("output", croppedUri);
+        intent.setClipData(ClipData.newRawUri("output", croppedUri));
+        if (fragment != null) {
+            fragment.startActivityForResult(intent, cropImageRequestCode);
+        } else {
+            activity.startActivityForResult(intent, cropImageRequestCode);
+        }
+    }
+
+    // executed in background by the pipeline
+    private Bitmap decodeCroppedImage(Intent data, File tempFile, int targetSize, int previewGeneration, ImagePipeline.Request request) throws IOException {
+        Bitmap image = null;
+
+        if (tempFile != null && tempFile.exists()) {
+            String path = tempFile.getAbsolutePath();
+            if (previewGeneration != NO_PREVIEW) {
+                postPreview(BitmapDecoder.decodePreview(path, getPreviewSize(targetSize), targetSize), previewGeneration);
+            }
+
+            image = BitmapDecoder.decodeFile(path, targetSize, targetSize);
+        }
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+
+        if (image == null && data.getData() != null) {  //nel caso non sia stata salvata nel file
+            // the crop app returned the Uri of the cropped image, it is decoded directly (the DATA column of MediaStore is not readable with the scoped storage)
+            image = decodeUri(data.getData(), targetSize);
+            if (image == null) {
+                image = copyAndDecodeUri(data.getData(), targetSize, request);
+            }
+        }
+        return image;
     }
 
     /**
-     * This method will save the last image selected and cropped
+     * Set the maximum width and height at which the images are decoded when the size of the ImageView is not known yet, the default
+     * is DEFAULT_MAX_IMAGE_DIMENSION. When the ImageView is measured the images are decoded at its size (but never larger than this value).
+     * The value is applied to the images decoded after this call (also to the saved image loaded at startup, if it is called right after the constructor).
+     *
+     * @param maxImageDimension the maximum width and height in pixels, <= 0 for no limit.
+     */
+    public void setMaxImageDimension(int maxImageDimension) {
+        this.maxImageDimension = maxImageDimension;
+    }
+
+    // size (in pixels) at which the images for the imageView are decoded
+    private int getTargetSize() {
+        int size = Math.max(imageView.getWidth(), imageView.getHeight());
+        if (size <= 0 && imageView.getLayoutParams() != null) {
+            // not measured yet, we use the size in the layout (if it is not match_parent or wrap_content)
+            size = Math.max(imageView.getLayoutParams().width, imageView.getLayoutParams().height);
+        }
+        if (size <= 0 || (maxImageDimension > 0 && size > maxImageDimension)) {
+            size = maxImageDimension;
+        }
+        return size;
+    }
+
+    private void loadSavedImage(final int defaultImageResId) {
+        final int targetSize = getTargetSize();
+        // the saved image has no preview: it is already about the size of the ImageView (and PNG by default, so decoding it
+        // at a reduced size would decompress the whole file anyway), a preview would only delay it
+        final int generation = startDisplay();
+        pipeline.submit(imageView, new Callable<DisplayedImage>() {
+            @Override
+            public DisplayedImage call() {
+                return loadSavedImageForDisplay(activity.getFilesDir(), targetSize);
+            }
+        }, new ImagePipeline.Callback<DisplayedImage>() {
+            @Override
+            public void onSuccess(DisplayedImage displayedImage) {
+                if (displayedImage != null) {
+                    // set the user image as the image
+                    showImage(displayedImage);
+                } else {
+                    imageView.setImageResource(defaultImageResId);
+                }
+                endPreview(generation, false);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                e.printStackTrace();
+                imageView.setImageResource(defaultImageResId);
+                endPreview(generation, false);
+            }
+        });
+    }
+
+    // executed in background: the pre-rendered circular image is read from the disk if it was persisted, otherwise it is rendered from the saved image
+    private DisplayedImage loadSavedImageForDisplay(File filesDir, int targetSize) {
+        if (imageKey != null) {
+            File file = getImageStore(activity).get(imageKey);
+            if (file == null) {
+                return null;
+            }
+            Bitmap image = getBitmapFromFile(file, targetSize);
+            return image != null ? prepareForDisplay(image, targetSize) : null;
+        }
+        if (preRenderCircular && persistCircularRender && targetSize > 0) {
+            File renderedFile = new File(new File(filesDir, CIRCULAR_RENDERS_DIRECTORY), String.valueOf(targetSize));
+            if (renderedFile.exists()) {
+                Bitmap rendered = CircularRenderer.decodeRendered(renderedFile.getPath(), useHardwareBitmaps);
+                if (rendered != null) {
+                    return new DisplayedImage(null, rendered);
+                }
+            }
+        }
+        File file = getSavedImageFile(filesDir, targetSize);
+        Bitmap image = getBitmapFromFile(file, targetSize);
+        if (image == null) {
+            return null;
+        }
+        if (preRenderCircular && targetSize > 0) {
+            Bitmap rendered = CircularRenderer.render(image, targetSize);
+            if (persistCircularRender) {
+                saveCircularRender(filesDir, rendered, targetSize);
+            }
+            // the image is already saved, so only the rendered one is kept
+            return new DisplayedImage(null, useHardwareBitmaps ? CircularRenderer.toHardware(rendered) : rendered);
+        }
+        return new DisplayedImage(image, null);
+    }
+
+    private static int getPreviewSize(int targetSize) {
+        return Math.max(1, targetSize / PREVIEW_SIZE_DIVISOR);
+    }
+
+    // executed in background: sends the preview to the main thread, where it is shown only if its load is still the current one
+    private void postPreview(final Bitmap preview, final int generation) {
+        if (preview == null) {
+            return;
+        }
+        pipeline.runOnCallbackExecutor(new Runnable() {
+            @Override
+            public void run() {
+                showPreview(preview, generation);
+            }
+        });
+    }
+
+    // starts a new load of the image to show, the previews and the results of the previous loads will be ignored
+    private int startDisplay() {
+        return ++displayGeneration;
+    }
+
+    // the preview can arrive after the final image (es. with a custom ImagePipeline) or after a newer load is started, in these cases it is discarded
+    private void showPreview(Bitmap preview, int generation) {
+        if (generation != displayGeneration || generation == endedGeneration) {
+            BitmapPool.getInstance().put(preview);
+            return;
+        }
+        if (previewImage != null) {
+            BitmapPool.getInstance().put(previewImage);
+        } else {
+            drawableBeforePreview = imageView.getDrawable();
+        }
+        RoundedBitmapDrawable circularPreview = RoundedBitmapDrawableFactory.create(activity.getResources(), preview);
+        circularPreview.setCircular(true);
+        imageView.setImageDrawable(circularPreview);
+        previewImage = preview;
+    }
+
+    // called when the load ends, if the load failed and its preview is shown the image shown before the preview is restored
+    private void endPreview(int generation, boolean restore) {
+        endedGeneration = generation;
+        if (previewImage != null) {
+            if (restore) {
+                imageView.setImageDrawable(drawableBeforePreview);
+            }
+            BitmapPool.getInstance().put(previewImage);
+            previewImage = null;
+            drawableBeforePreview = null;
+        }
+    }
+
+    // executed in background: pre-renders the circular image if requested
+    private DisplayedImage prepareForDisplay(Bitmap image, int targetSize) {
+        if (image == null) {
+            return null;
+        }
+        if (preRenderCircular && targetSize > 0) {
+            Bitmap rendered = CircularRenderer.render(image, targetSize);
+            return new DisplayedImage(image, useHardwareBitmaps ? CircularRenderer.toHardware(rendered) : rendered);
+        }
+        return new DisplayedImage(image, null);
+    }
+
+    private void showImage(DisplayedImage displayedImage) {
+        Bitmap previousImage = this.image;
+        Bitmap previousRenderedImage = this.renderedImage;
+        if (displayedImage.rendered != null) {
+            // the circle is already drawn in the bitmap, so it is drawn as it is
+            imageView.setImageDrawable(new BitmapDrawable(activity.getResources(), displayedImage.rendered));
+        } else {
+            RoundedBitmapDrawable circlularImage = RoundedBitmapDrawableFactory.create(activity.getResources(), displayedImage.image);
+            circlularImage.setCircular(true);
+            imageView.setImageDrawable(circlularImage);
+        }
+        imageView.setTag(CUSTOM_IMAGE);
+        this.image = displayedImage.image;
+        this.renderedImage = displayedImage.rendered;
+        releaseImage(previousImage);
+        if (previousRenderedImage != null && previousRenderedImage != renderedImage) {
+            BitmapPool.getInstance().put(previousRenderedImage);
+        }
+    }
+
+    // returns to the BitmapPool an image not shown anymore, unless it is still used by a save or shared by the BitmapCache
+    private void releaseImage(Bitmap previousImage) {
+        if (previousImage != null && previousImage != image) {
+            synchronized (savingImages) {
+                if (savingImages.containsKey(previousImage)) {
+                    return;
+                }
+            }
+            if (!BitmapCache.getInstance().isShared(previousImage)) {
+                BitmapPool.getInstance().put(previousImage);
+            }
+        }
+    }
+
+    /**
+     * Set the listener that will receive the measurements of each stage of the processing of the images (copy, crop, decode, orientation,
+     * encode and write) of all the GalleryImageSelector, es. an AggregatingMetricsListener. The listener is called on the thread that
+     * executed the stage.
+     *
+     * @param metricsListener the listener, or null to stop the measurements (ImageMetricsListener.NO_OP, the default)
+     */
+    public static void setMetricsListener(@Nullable ImageMetricsListener metricsListener) {
+        Metrics.setListener(metricsListener);
+    }
+
+    /**
+     * @return the listener set with setMetricsListener, or ImageMetricsListener.NO_OP
+     */
+    public static ImageMetricsListener getMetricsListener() {
+        return Metrics.getListener();
+    }
+
+    /**
+     * Release the memory used by GalleryImageSelector (the BitmapPool and the BitmapCache) following the level passed, call this method
+     * from onTrimMemory of your Application or Activity.
+     *
+     * @param level the level received by ComponentCallbacks2.onTrimMemory
+     */
+    public static void onTrimMemory(int level) {
+        BitmapPool.getInstance().trimMemory(level);
+        BitmapCache.getInstance().trimMemory(level);
+    }
+
+    /**
+     * This method will save the last image selected and cropped, the saving is executed in background.
+     * <br /><br />
+     * The saves are cheap to repeat: if the same image was already saved with the same settings the encoding and the writing are skipped,
+     * and the saves requested while the previous save of the same file is still running are merged, so only the last image is written.
+     * Each file has a single writer at a time (also with a multi-threaded ImagePipeline), so the last image saved is always the one on the disk.
+     * The file is written in a temporary file and then renamed, so a crash during the writing never leaves a corrupted image.
+     * The OnImageSavedListener is called only for the saves actually executed (also when they are skipped because the image was already saved).
      */
     public void saveImage() {
         if (image != null) {
-            saveBitmapToFile(new File(activity.getFilesDir(), "user_image"), image);
+            String key = imageKey;
+            File file = key != null ? getImageStore(activity).fileOf(key) : new File(activity.getFilesDir(), "user_image");
+            int[] variantSizes = key != null ? new int[0] : getVariantSizesPx();
+            int renderSize = key == null && preRenderCircular && persistCircularRender ? Math.max(0, getTargetSize()) : 0;
+            // the image must not be returned to the BitmapPool while it is encoded
+            synchronized (savingImages) {
+                Integer count = savingImages.get(image);
+                savingImages.put(image, count != null ? count + 1 : 1);
+            }
+            enqueueWrite(pipeline, file, new PendingSave(image, saveOptions, key, file, variantSizes, renderSize));
+        }
+    }
+
+    // the writes of a file (saves and removes) are executed one at a time by a single job: if a write of the file is running the new write
+    // waits for it, and replaces the write that was waiting (that is never executed, since its result would be overwritten)
+    private static void enqueueWrite(final ImagePipeline pipeline, final File file, PendingWrite write) {
+        PendingWrite replaced;
+        boolean startWriter;
+        synchronized (fileWrites) {
+            FileWrites writes = fileWrites.get(file);
+            startWriter = writes == null;
+            if (startWriter) {
+                writes = new FileWrites();
+                fileWrites.put(file, writes);
+            }
+            replaced = writes.waiting;
+            writes.waiting = write;
+        }
+        if (replaced != null) {
+            replaced.release();
+        }
+        if (startWriter) {
+            pipeline.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    executeWrites(pipeline, file);
+                    return null;
+                }
+            }, null);
+        }
+    }
+
+    // executed in background: the writer of the file executes the waiting writes until there are no more
+    private static void executeWrites(ImagePipeline pipeline, File file) {
+        while (true) {
+            final PendingWrite write;
+            synchronized (fileWrites) {
+                FileWrites writes = fileWrites.get(file);
+                write = writes.waiting;
+                writes.waiting = null;
+                if (write == null) {
+                    fileWrites.remove(file);
+                    return;
+                }
+            }
+            try {
+                write.execute();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                write.release();
+            }
+            pipeline.runOnCallbackExecutor(new Runnable() {
+                @Override
+                public void run() {
+                    write.notifyExecuted();
+                }
+            });
+        }
+    }
+
+    // the write waiting to be executed by the writer of a file (the writer exists while the file has an entry in fileWrites)
+    private static class FileWrites {
+        private PendingWrite waiting;
+    }
+
+    private abstract static class PendingWrite {
+        // executed in background by the writer of the file
+        abstract void execute();
+
+        // called after the execution, or when the write is replaced before being executed
+        void release() {
+        }
+
+        // called on the callback Executor after the execution
+        void notifyExecuted() {
+        }
+    }
+
+    // removes the saved image of a file (with its variants and renders, or from the ImageStore if it has a key)
+    private class PendingRemove extends PendingWrite {
+        private final String key;
+        private final File file;
+
+        private PendingRemove(String key, File file) {
+            this.key = key;
+            this.file = file;
+        }
+
+        @Override
+        void execute() {
+            forgetSavedImage(file);
+            if (key != null) {
+                getImageStore(activity).remove(key);
+                return;
+            }
+            deleteVariants(activity.getFilesDir());
+            deleteCircularRenders(activity.getFilesDir());
+            BitmapCache.getInstance().invalidate(file);
+            file.delete();
+        }
+    }
+
+    private class PendingSave extends PendingWrite {
+        private final Bitmap imageToSave;
+        private final SaveOptions options;
+        private final String key;
+        private final File file;
+        private final int[] variantSizes;
+        private final int renderSize;
+        private EncodeResult result;
+
+        private PendingSave(Bitmap imageToSave, SaveOptions options, String key, File file, int[] variantSizes, int renderSize) {
+            this.imageToSave = imageToSave;
+            this.options = options;
+            this.key = key;
+            this.file = file;
+            this.variantSizes = variantSizes;
+            this.renderSize = renderSize;
+        }
+
+        @Override
+        void execute() {
+            ImageFingerprint fingerprint = fingerprintOf(imageToSave, options, variantSizes, renderSize);
+            SavedImage saved;
+            synchronized (savedImages) {
+                saved = savedImages.get(file);
+            }
+            if (fingerprint != null && saved != null && fingerprint.equals(saved.fingerprint) && file.exists()) {
+                // the same image is already saved with the same settings
+                result = saved.result;
+                return;
+            }
+            forgetSavedImage(file);
+            if (key != null) {
+                result = saveBitmapToStore(getImageStore(activity), key, imageToSave, options);
+            } else {
+                saveVariants(activity.getFilesDir(), imageToSave, variantSizes, options);
+                // the renders of the previous image are not valid anymore
+                deleteCircularRenders(activity.getFilesDir());
+                if (renderSize > 0) {
+                    Bitmap rendered = CircularRenderer.render(imageToSave, renderSize);
+                    saveCircularRender(activity.getFilesDir(), rendered, renderSize);
+                    BitmapPool.getInstance().put(rendered);
+                }
+                result = saveBitmapToFile(file, imageToSave, options);
+            }
+            if (fingerprint != null && result != null) {
+                synchronized (savedImages) {
+                    savedImages.put(file, new SavedImage(fingerprint, result));
+                }
+            }
+        }
+
+        @Override
+        void release() {
+            synchronized (savingImages) {
+                int count = savingImages.get(imageToSave);
+                if (count > 1) {
+                    savingImages.put(imageToSave, count - 1);
+                } else {
+                    savingImages.remove(imageToSave);
+                }
+            }
+        }
+
+        @Override
+        void notifyExecuted() {
+            if (result != null && onImageSavedListener != null) {
+                onImageSavedListener.onImageSaved(file, result);
+            }
+        }
+    }
+
+    // the fingerprint and the result of the last image saved in a file
+    private static class SavedImage {
+        private final ImageFingerprint fingerprint;
+        private final EncodeResult result;
+
+        private SavedImage(ImageFingerprint fingerprint, EncodeResult result) {
+            this.fingerprint = fingerprint;
+            this.result = result;
+        }
+    }
+
+    // executed in background: the pixels are read one row at a time, returns null if they can not be read (es. a HARDWARE bitmap)
+    private static ImageFingerprint fingerprintOf(Bitmap image, SaveOptions options, int[] variantSizes, int renderSize) {
+        if (image.isRecycled() || BitmapPool.isHardware(image)) {
+            return null;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        ImageFingerprint.PixelsChecksum checksum = new ImageFingerprint.PixelsChecksum();
+        for (int y = 0; y < height; y++) {
+            image.getPixels(row, 0, width, 0, y, width, 1);
+            checksum.update(row, 0, width);
+        }
+        return new ImageFingerprint(width, height, checksum.getValue(), options, variantSizes, renderSize);
+    }
+
+    private static void forgetSavedImage(File file) {
+        synchronized (savedImages) {
+            savedImages.remove(file);
         }
     }
 
     /**
-     * This static method will return the last image saved
+     * Set the sizes of the pre-scaled variants written, in addition to the full image, every time the image is saved (es. 48, 96 for
+     * a toolbar icon and a list row), by default no variant is written.
+     * getSavedImage(context, targetPx) will then read the smallest variant that covers targetPx, so the small views decode a few KB
+     * instead of the full image.
+     *
+     * @param sizesDp the sizes (width and height) of the variants in dp
+     */
+    public void setSaveVariants(int... sizesDp) {
+        this.variantSizesDp = sizesDp != null ? sizesDp.clone() : new int[0];
+    }
+
+    private int[] getVariantSizesPx() {
+        float density = activity.getResources().getDisplayMetrics().density;
+        int[] sizesPx = new int[variantSizesDp.length];
+        for (int i = 0; i < variantSizesDp.length; i++) {
+            sizesPx[i] = Math.round(variantSizesDp[i] * density);
+        }
+        return sizesPx;
+    }
+
+    /**
+     * If true the circular image is rendered once, in background, at the size of the ImageView and shown as a plain bitmap, instead of
+     * being clipped at every frame by a RoundedBitmapDrawable (useful for lists with many images). The default is false.
+     * The settings are applied to the images loaded after this call (also to the saved image loaded at startup, if it is called right after the constructor).
+     *
+     * @param preRenderCircular      true to pre-render the circular image
+     * @param useHardwareBitmaps     true to keep the rendered image in a HARDWARE bitmap (only in the GPU memory) on API 26+
+     * @param persistCircularRender  true to save the rendered image in the files of the app, so at the next start it is read
+     *                               without decoding and rendering the saved image again
+     */
+    public void setPreRenderCircular(boolean preRenderCircular, boolean useHardwareBitmaps, boolean persistCircularRender) {
+        this.preRenderCircular = preRenderCircular;
+        this.useHardwareBitmaps = useHardwareBitmaps;
+        this.persistCircularRender = persistCircularRender;
+    }
+
+    /**
+     * Enable the multiple selection: when the listener is not null the user can select many images from the gallery, they are not
+     * cropped and not shown in the ImageView, instead each of them is copied, decoded (with its orientation and downscaled to the maximum size
+     * set with setMaxImageDimension), encoded with the SaveOptions and saved in a new file, and the result is sent to the listener
+     * as soon as it is ready. The images are processed in parallel by a pipeline with a thread for each core (see setParallelPipeline).
+     * <br /><br />
+     * The files of the processed images are owned by the app, that should delete them when they are not needed anymore.
+     *
+     * @param onMultipleImagesListener the listener that will receive the processed images, or null to disable the multiple selection
+     */
+    public void setOnMultipleImagesListener(@Nullable OnMultipleImagesListener onMultipleImagesListener) {
+        this.onMultipleImagesListener = onMultipleImagesListener;
+    }
+
+    /**
+     * Set the ImagePipeline used to process the images of a multiple selection in parallel, the default one uses a thread for each core
+     * and delivers the results on the main thread.
+     *
+     * @param pipeline the pipeline used by all the GalleryImageSelector
+     */
+    public static synchronized void setParallelPipeline(@NonNull ImagePipeline pipeline) {
+        parallelPipeline = pipeline;
+    }
+
+    private static synchronized ImagePipeline getParallelPipeline() {
+        if (parallelPipeline == null) {
+            parallelPipeline = new ImagePipeline(ImagePipeline.newBoundedWorkerExecutor(Runtime.getRuntime().availableProcessors()), new MainThreadExecutor());
+        }
+        return parallelPipeline;
+    }
+
+    /**
+     * Save the image of this GalleryImageSelector in the ImageStore (see getImageStore) with the key passed, instead of in the single
+     * "user_image" file, so many GalleryImageSelector (es. one for each contact) can save their images without overwriting each other.
+     * The images of the store can be loaded with getSavedImage(context, key), and the least recently used are deleted when the store
+     * exceeds its maximum size. The variants (setSaveVariants) and the persisted circular renders are not saved for the images with a key.
+     * <br /><br />
+     * Call it right after the constructor to load the image saved with the key at startup.
+     *
+     * @param key the key of the image (es. the id of the contact), or null to use the "user_image" file (the default)
+     */
+    public void setImageKey(@Nullable String key) {
+        this.imageKey = key;
+    }
+
+    /**
+     * Set the request codes used to start the gallery and the crop app, they must be passed to onActivityResult unchanged.
+     * By default each GalleryImageSelector gets a pair of codes between 0x4000 and 0x7FFF that no other GalleryImageSelector alive
+     * (whose activity is not destroyed) uses, so many GalleryImageSelector can be used in the same activity. The pair is derived from the
+     * id of the ImageView, so it is the same after the activity is recreated (that is why the ImageView should have an id), unless
+     * another GalleryImageSelector already uses it (es. the ids of two ImageView differ only above the lowest 13 bits, or the same layout is
+     * used twice), in that case the next free pair is used, and the pairs are the same after the recreation only if the GalleryImageSelector are
+     * created in the same order. At most 8192 GalleryImageSelector can be alive at the same time.
+     * Set the codes only if they collide with the request codes of your activity.
+     *
+     * @param pickImageRequestCode the request code of the gallery, in the lower 16 bits
+     * @param cropImageRequestCode the request code of the crop app, in the lower 16 bits
+     * @throws IllegalArgumentException if one of the codes is used by another GalleryImageSelector alive
+     */
+    public void setRequestCodes(int pickImageRequestCode, int cropImageRequestCode) {
+        requestCodes.replace(this.pickImageRequestCode, this.cropImageRequestCode, pickImageRequestCode, cropImageRequestCode, requestCodeOwner);
+        this.pickImageRequestCode = pickImageRequestCode;
+        this.cropImageRequestCode = cropImageRequestCode;
+    }
+
+    /**
+     * If true (the default) the picked image is decoded directly from its Uri (with ImageDecoder on Android 9 and above, otherwise from
+     * a file descriptor of the ContentResolver) when it is cropped with CROP_MODE_BUILT_IN or selected with the multiple selection,
+     * without copying it into the cache first. The copy is still done when the external crop app needs a file, or when the Uri
+     * can not be read directly (es. it is a pipe).
+     *
+     * @param decodeFromUri false to always copy the picked image into the cache before decoding it
+     */
+    public void setDecodeFromUri(boolean decodeFromUri) {
+        this.decodeFromUri = decodeFromUri;
+    }
+
+    /**
+     * If true, while the cropped image is decoded a low resolution preview is shown: the EXIF thumbnail of the image, if it has one,
+     * or the image decoded at 1/8 of the size of the ImageView, that is ready in a few milliseconds also for huge photos. The preview
+     * is then replaced by the final image. The preview is decoded only when it arrives much earlier than the final image: when the image
+     * has an EXIF thumbnail, is a JPEG (decoded at a reduced scale) or is much larger than the ImageView. The saved image loaded at startup
+     * has no preview, since it is already about the size of the ImageView. The default is false.
+     *
+     * @param progressivePreview true to show the preview
+     */
+    public void setProgressivePreview(boolean progressivePreview) {
+        this.progressivePreview = progressivePreview;
+    }
+
+    /**
+     * Set who crops the picked image: CROP_MODE_EXTERNAL (the default) starts an external crop app, CROP_MODE_BUILT_IN crops the
+     * image in the library with the CropRectProvider set with setCropRectProvider (by default the largest centered square),
+     * avoiding the switch to another app and the decoding of the full picked image.
+     *
+     * @param cropMode CROP_MODE_EXTERNAL or CROP_MODE_BUILT_IN
+     */
+    public void setCropMode(int cropMode) {
+        this.cropMode = cropMode;
+    }
+
+    /**
+     * Set the CropRectProvider used with CROP_MODE_BUILT_IN, the default is CENTER_SQUARE.
+     *
+     * @param cropRectProvider the provider of the crop rectangle
+     */
+    public void setCropRectProvider(@NonNull CropRectProvider cropRectProvider) {
+        this.cropRectProvider = cropRectProvider;
+    }
+
+    /**
+     * Set the format, the quality and optionally the maximum number of bytes used to save the image, the default is SaveOptions.DEFAULT (PNG).
+     * The saved image is always read with its format, so changing the options does not require to delete the image saved before.
+     *
+     * @param saveOptions the options used by the next saves
+     */
+    public void setSaveOptions(@NonNull SaveOptions saveOptions) {
+        this.saveOptions = saveOptions;
+    }
+
+    /**
+     * Set a listener that will be notified (on the main thread) of the progress of the copy of the picked image into the cache of the app,
+     * useful to show a progress indicator for large images or images picked from a remote source.
+     *
+     * @param onCopyProgressListener the listener, or null to remove it
+     */
+    public void setOnCopyProgressListener(@Nullable OnCopyProgressListener onCopyProgressListener) {
+        this.onCopyProgressListener = onCopyProgressListener;
+    }
+
+    /**
+     * Set a listener that will be notified (on the main thread) every time the image is saved, with the format, the quality,
+     * the size and the encoding time of the saved image.
+     *
+     * @param onImageSavedListener the listener, or null to remove it
+     */
+    public void setOnImageSavedListener(@Nullable OnImageSavedListener onImageSavedListener) {
+        this.onImageSavedListener = onImageSavedListener;
+    }
+
+    /**
+     * This static method will return the last image saved, it reads and decodes the file in the calling thread, so it should not be called
+     * on the main thread (use getSavedImage(context, callback) instead).
+     * The decoded images are kept in the BitmapCache, so the returned image is shared and must not be recycled.
      *
      * @param context context used to getFilesDir()
      * @return the last image saved
      */
     public static Bitmap getSavedImage(Context context) {
-        return getBitmapFromFile(new File(context.getFilesDir(), "user_image"));
+        return getSavedImage(context, DEFAULT_MAX_IMAGE_DIMENSION);
     }
 
-    private static synchronized Bitmap getBitmapFromFile(File file) {
-        if (file.exists()) {
-            return BitmapFactory.decodeFile(file.getPath());
-        } else {
-            return null;
+    /**
+     * Like getSavedImage(context), but the image is decoded at the size passed instead of at DEFAULT_MAX_IMAGE_DIMENSION,
+     * pass the size of the view that will show the image to avoid to allocate more memory than needed.
+     * If the image was saved with variants (see setSaveVariants) the smallest variant that covers the size passed is read instead of the full image.
+     *
+     * @param context  context used to getFilesDir()
+     * @param targetPx width and height (in pixels) that the image should cover, <= 0 to decode it at full resolution
+     * @return the last image saved
+     */
+    public static Bitmap getSavedImage(Context context, int targetPx) {
+        return getBitmapFromFile(getSavedImageFile(context.getFilesDir(), targetPx), targetPx);
+    }
+
+    /**
+     * This static method will load the last image saved in background, using the default ImagePipeline, and will pass it to the callback
+     * on the main thread (the result will be null if there is no saved image).
+     *
+     * @param context  context used to getFilesDir()
+     * @param callback the callback that will receive the last image saved
+     * @return the Request that can be used to cancel the loading
+     */
+    public static ImagePipeline.Request getSavedImage(Context context, ImagePipeline.Callback<Bitmap> callback) {
+        final File filesDir = context.getFilesDir();
+        return getDefaultPipeline().submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return getBitmapFromFile(getSavedImageFile(filesDir, DEFAULT_MAX_IMAGE_DIMENSION), DEFAULT_MAX_IMAGE_DIMENSION);
+            }
+        }, callback);
+    }
+
+    /**
+     * Set the ImagePipeline used by the GalleryImageSelector created after this call (without passing a pipeline to the constructor)
+     * and by getSavedImage(context, callback).
+     *
+     * @param pipeline the new default ImagePipeline
+     */
+    public static synchronized void setDefaultPipeline(@NonNull ImagePipeline pipeline) {
+        defaultPipeline = pipeline;
+    }
+
+    /**
+     * @return the ImagePipeline used by default, it executes the jobs on ImagePipeline.DEFAULT_WORKER_THREADS background threads and delivers the results on the main thread.
+     */
+    public static synchronized ImagePipeline getDefaultPipeline() {
+        if (defaultPipeline == null) {
+            defaultPipeline = new ImagePipeline(ImagePipeline.newDefaultWorkerExecutor(), new MainThreadExecutor());
         }
+        return defaultPipeline;
     }
 
-    private static synchronized void saveBitmapToFile(File file, Bitmap image) {
-        OutputStream outStream = null;
-        try {
-            outStream = new FileOutputStream(file);
-            image.compress(Bitmap.CompressFormat.PNG, 100, outStream);
-            outStream.flush();
-            outStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Load the image saved with the key (see setImageKey) at DEFAULT_MAX_IMAGE_DIMENSION, the lookup of the key does not access the disk.
+     * As for getSavedImage(context) the image is decoded on the calling thread.
+     *
+     * @param context context used to getFilesDir()
+     * @param key     the key of the image
+     * @return the image saved with the key, or null if there is no image with this key
+     */
+    public static Bitmap getSavedImage(Context context, String key) {
+        return getSavedImage(context, key, DEFAULT_MAX_IMAGE_DIMENSION);
+    }
+
+    /**
+     * Like getSavedImage(context, key), but the image is decoded at the size passed.
+     *
+     * @param targetPx width and height (in pixels) that the image should cover, <= 0 to decode it at full resolution
+     */
+    public static Bitmap getSavedImage(Context context, String key, int targetPx) {
+        File file = getImageStore(context).get(key);
+        return file != null ? getBitmapFromFile(file, targetPx) : null;
+    }
+
+    /**
+     * @return the ImageStore that contains the images saved with a key (see setImageKey), by default it can contain up to
+     * DEFAULT_IMAGE_STORE_MAX_SIZE bytes of images, use setMaxSize to change it.
+     */
+    public static synchronized ImageStore getImageStore(Context context) {
+        if (imageStore == null) {
+            imageStore = new ImageStore(getImageStoreDirectory(context), DEFAULT_IMAGE_STORE_MAX_SIZE) {
+                @Override
+                protected void onRemoved(String key, File file) {
+                    forgetSavedImage(file);
+                    BitmapCache.getInstance().invalidate(file);
+                }
+            };
         }
+        return imageStore;
     }
 
-    private void copyImageUriIntoFile(Uri sourceUri, File destinationFile) {
-        InputStream inputStream = null;
-        BufferedInputStream bis = null;
-        BufferedOutputStream bos = null;
+    private static File getImageStoreDirectory(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), IMAGE_STORE_DIRECTORY);
+    }
+
+    // the image is encoded out of the lock of the store, the store writes it into a temporary file and renames it
+    private static EncodeResult saveBitmapToStore(ImageStore store, String key, Bitmap image, SaveOptions saveOptions) {
         try {
-            inputStream = activity.getContentResolver().openInputStream(sourceUri);
-            if (inputStream != null) {
-                bis = new BufferedInputStream(inputStream);
-                bos = new BufferedOutputStream(new FileOutputStream(destinationFile, false));
-                byte[] buf = new byte[1024];
-                while (bis.read(buf) != -1) {
-                    bos.write(buf);
+            final ImageEncoder.Encoded encoded = ImageEncoder.encode(image, saveOptions);
+            long startTime = System.nanoTime();
+            store.put(key, new AtomicFiles.Writer() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    encoded.writeTo(outputStream);
                 }
-            }
-        } catch (IOException e) {
+            });
+            Metrics.report(StageMetrics.Stage.WRITE, startTime, 0, encoded.result.getSizeBytes(), 0, 0, 0, null);
+            return encoded.result;
+        } catch (Exception e) {
             e.printStackTrace();
-        } finally {
+            return null;
+        }
+    }
+
+    // returns the smallest saved variant that covers targetSize, or the full image if no variant does
+    private static File getSavedImageFile(File filesDir, int targetSize) {
+        File fullImage = new File(filesDir, "user_image");
+        String[] variants = new File(filesDir, VARIANTS_DIRECTORY).list();
+        if (targetSize <= 0 || variants == null) {
+            return fullImage;
+        }
+        int bestSize = Integer.MAX_VALUE;
+        for (String variant : variants) {
             try {
-                if (bis != null) bis.close();
-                if (bos != null) bos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                int size = Integer.parseInt(variant);
+                if (size >= targetSize && size < bestSize) {
+                    bestSize = size;
+                }
+            } catch (NumberFormatException e) {
+                // not a variant
             }
         }
-
+        return bestSize != Integer.MAX_VALUE ? new File(new File(filesDir, VARIANTS_DIRECTORY), String.valueOf(bestSize)) : fullImage;
     }
 
-    private static Bitmap modifyOrientation(Bitmap bitmap, String image_absolute_path) throws IOException {
-        ExifInterface ei = new ExifInterface(image_absolute_path);
-        int orientation = ei.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-
-        switch (orientation) {
-            case ExifInterface.ORIENTATION_ROTATE_90:
-                return rotate(bitmap, 90);
-
-            case ExifInterface.ORIENTATION_ROTATE_180:
-                return rotate(bitmap, 180);
+    // writes a variant, named with its size in pixels, for every size smaller than the image (the full image already covers the others)
+    private static void saveVariants(File filesDir, Bitmap image, int[] sizesPx, SaveOptions saveOptions) {
+        File directory = new File(filesDir, VARIANTS_DIRECTORY);
+        // the variants of the previous image are deleted, also the ones with the same sizes, since they could not be rewritten
+        deleteVariants(filesDir);
+        if (sizesPx.length == 0) {
+            return;
+        }
+        directory.mkdirs();
+        for (int size : sizesPx) {
+            Bitmap variant = BitmapDecoder.transformCopy(image, Orientation.NORMAL, size, size);
+            if (variant != image) {
+                saveBitmapToFile(new File(directory, String.valueOf(size)), variant, saveOptions);
+                BitmapPool.getInstance().put(variant);
+            }
+        }
+    }
 
-            case ExifInterface.ORIENTATION_ROTATE_270:
-                return rotate(bitmap, 270);
+    // the rendered image has a transparent background, so it is always saved as PNG
+    private static void saveCircularRender(File filesDir, Bitmap rendered, int size) {
+        File directory = new File(filesDir, CIRCULAR_RENDERS_DIRECTORY);
+        directory.mkdirs();
+        saveBitmapToFile(new File(directory, String.valueOf(size)), rendered, SaveOptions.DEFAULT);
+    }
 
-            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
-                return flip(bitmap, true, false);
+    private static void deleteCircularRenders(File filesDir) {
+        File[] renders = new File(filesDir, CIRCULAR_RENDERS_DIRECTORY).listFiles();
+        if (renders != null) {
+            for (File render : renders) {
+                render.delete();
+            }
+        }
+    }
 
-            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
-                return flip(bitmap, false, true);
+    private static void deleteVariants(File filesDir) {
+        File[] variants = new File(filesDir, VARIANTS_DIRECTORY).listFiles();
+        if (variants == null) {
+            return;
+        }
+        for (File variant : variants) {
+            BitmapCache.getInstance().invalidate(variant);
+            variant.delete();
+        }
+    }
 
-            default:
+    // the file is read with its read lock, so only its writing waits, the other files can be read and written in parallel
+    private static Bitmap getBitmapFromFile(File file, int targetSize) {
+        Lock lock = FileLocks.forFile(file).readLock();
+        lock.lock();
+        try {
+            if (file.exists()) {
+                BitmapCache cache = BitmapCache.getInstance();
+                Bitmap bitmap = cache.get(file, targetSize);
+                if (bitmap == null) {
+                    bitmap = BitmapDecoder.decodeFile(file.getPath(), targetSize, targetSize);
+                    if (bitmap != null) {
+                        cache.put(file, targetSize, bitmap);
+                    }
+                }
                 return bitmap;
+            } else {
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the image is encoded out of the lock, only the writing of the file holds the write lock of the file
+    private static EncodeResult saveBitmapToFile(File file, Bitmap image, SaveOptions saveOptions) {
+        try {
+            ImageEncoder.Encoded encoded = ImageEncoder.encode(image, saveOptions);
+            writeEncodedToFile(file, encoded);
+            return encoded.result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
-    private static Bitmap rotate(Bitmap bitmap, float degrees) {
-        Matrix matrix = new Matrix();
-        matrix.postRotate(degrees);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    private static void writeEncodedToFile(File file, ImageEncoder.Encoded encoded) throws IOException {
+        Lock lock = FileLocks.forFile(file).writeLock();
+        lock.lock();
+        try {
+            writeEncodedToFileLocked(file, encoded);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private static Bitmap flip(Bitmap bitmap, boolean horizontal, boolean vertical) {
-        Matrix matrix = new Matrix();
-        matrix.preScale(horizontal ? -1 : 1, vertical ? -1 : 1);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    // the image is written atomically (see AtomicFiles), so a crash never leaves a corrupted image
+    private static void writeEncodedToFileLocked(File file, final ImageEncoder.Encoded encoded) throws IOException {
+        long startTime = System.nanoTime();
+        BitmapCache.getInstance().invalidate(file);
+        try {
+            AtomicFiles.write(file, new File(file.getParentFile(), file.getName() + TEMP_SAVE_SUFFIX), new AtomicFiles.Writer() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    encoded.writeTo(outputStream);
+                }
+            });
+        } catch (IOException e) {
+            Metrics.report(StageMetrics.Stage.WRITE, startTime, 0, 0, 0, 0, 0, e);
+            throw e;
+        }
+        Metrics.report(StageMetrics.Stage.WRITE, startTime, 0, encoded.result.getSizeBytes(), 0, 0, 0, null);
     }
 
-    private Uri getTempPickedUri() {
-        return FileProvider.getUriForFile(activity, authority, getTempPickedFile());
+    // executed in background by the pipeline, if the request is cancelled the copy stops and the partial file is deleted
+    private void copyImageUriIntoFile(Uri sourceUri, File destinationFile, final ImagePipeline.Request request) throws IOException {
+        long startTime = System.nanoTime();
+        long copiedBytes = 0;
+        Throwable error = null;
+        ChannelCopier.CopyListener listener = new ChannelCopier.CopyListener() {
+            @Override
+            public boolean onProgress(final long copiedBytes, final long totalBytes) {
+                final OnCopyProgressListener progressListener = onCopyProgressListener;
+                if (progressListener != null && !request.isCancelled()) {
+                    pipeline.runOnCallbackExecutor(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressListener.onCopyProgress(copiedBytes, totalBytes);
+                        }
+                    });
+                }
+                return !request.isCancelled();
+            }
+        };
+        ParcelFileDescriptor fileDescriptor = null;
+        InputStream inputStream = null;
+        FileOutputStream outputStream = new FileOutputStream(destinationFile, false);
+        try {
+            try {
+                fileDescriptor = activity.getContentResolver().openFileDescriptor(sourceUri, "r");
+            } catch (FileNotFoundException e) {
+                // some providers can only open a stream (es. virtual files)
+                fileDescriptor = null;
+            }
+            if (fileDescriptor != null && fileDescriptor.getStatSize() >= 0) {
+                // the source is a file, so it is seekable and the kernel can transfer it directly
+                inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+                copiedBytes = ChannelCopier.copy(((FileInputStream) inputStream).getChannel(), outputStream.getChannel(), fileDescriptor.getStatSize(), listener);
+            } else {
+                // the source is a pipe or a socket
+                inputStream = fileDescriptor != null ? new FileInputStream(fileDescriptor.getFileDescriptor()) : activity.getContentResolver().openInputStream(sourceUri);
+                if (inputStream == null) {
+                    throw new FileNotFoundException("unable to open " + sourceUri);
+                }
+                copiedBytes = ChannelCopier.copy(Channels.newChannel(inputStream), outputStream.getChannel(), -1, listener);
+            }
+        } catch (CancellationException e) {
+            error = e;
+            outputStream.close();
+            destinationFile.delete();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            outputStream.close();
+            if (inputStream != null) inputStream.close();
+            if (fileDescriptor != null) fileDescriptor.close();
+            Metrics.report(StageMetrics.Stage.COPY, startTime, copiedBytes, copiedBytes, 0, 0, 0, error);
+        }
     }
 
-    private Uri getTempCroppedUri() {
-        return FileProvider.getUriForFile(activity, authority, getTempCroppedFile());
+    private Uri getTempFileUri(File tempFile) {
+        return FileProvider.getUriForFile(activity, authority, tempFile);
     }
 
-    private File getTempPickedFile() {
-        activity.getCacheDir().mkdirs();
+    private File getTempDirectory() {
         File directory = new File(activity.getCacheDir(), TEMP_PHOTO_DIRECTORY);
         directory.mkdirs();
-        File file = new File(directory, TEMP_PICKED_PHOTO_FILE);
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
+        return directory;
+    }
+
+    // every request has its own temporary file, so two GalleryImageSelector (or two requests of the same one) can not overwrite each other's files
+    private File createTempFile(String prefix) throws IOException {
+        return File.createTempFile(prefix, ".jpg", getTempDirectory()).getAbsoluteFile();
+    }
+
+    // executed in background: returns the most recent temporary file with the prefix, or null
+    private File findLatestTempFile(final String prefix) {
+        File[] files = getTempDirectory().listFiles();
+        File latest = null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix) && (latest == null || file.lastModified() > latest.lastModified())) {
+                    latest = file;
+                }
             }
         }
-        return file.getAbsoluteFile();
+        return latest;
     }
 
-    private File getTempCroppedFile() {
-        activity.getCacheDir().mkdirs();
-        File directory = new File(activity.getCacheDir(), TEMP_PHOTO_DIRECTORY);
-        directory.mkdirs();
-        File file = new File(directory, TEMP_CROPPED_PHOTO_FILE);
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-            } catch (IOException e) {
+    // executed in background: deletes the temporary file, or if it is not known (the GalleryImageSelector has been recreated) all the files with the prefix
+    private void deleteTempFiles(File tempFile, String prefix) {
+        if (tempFile != null) {
+            tempFile.delete();
+            return;
+        }
+        File[] files = getTempDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    // executed in background once for each process: deletes the temporary files left by the requests of the processes that have been killed
+    private static void deleteStaleTempFiles(File tempDirectory) {
+        File[] files = tempDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+                file.delete();
             }
         }
-        return file.getAbsoluteFile();
+    }
+
+    /**
+     * Listener of the multiple selection, its methods are called on the main thread.
+     */
+    public interface OnMultipleImagesListener {
+        /**
+         * Called when one of the selected images has been processed, the images are notified in the order in which they are completed.
+         *
+         * @param index     position of the image in the selection
+         * @param sourceUri the Uri of the selected image
+         * @param file      the file that contains the processed image
+         * @param result    format, quality, size and encoding time of the processed image
+         */
+        void onImageProcessed(int index, Uri sourceUri, File file, EncodeResult result);
+
+        /**
+         * Called when one of the selected images can not be processed.
+         */
+        void onImageFailed(int index, Uri sourceUri, Exception e);
+
+        /**
+         * Called after all the selected images have been processed or have failed.
+         */
+        void onAllImagesProcessed(int processedCount, int failedCount);
+    }
+
+    /**
+     * Provides the crop rectangle used by CROP_MODE_BUILT_IN, it is called in background.
+     */
+    public interface CropRectProvider {
+        /**
+         * @param imageWidth  width of the picked image, with its EXIF orientation already applied
+         * @param imageHeight height of the picked image, with its EXIF orientation already applied
+         * @return the rectangle to crop (it should be a square, since the image is shown in a circle), in the coordinates of the oriented image
+         */
+        Rect getCropRect(int imageWidth, int imageHeight);
+    }
+
+    /**
+     * Listener notified while the picked image is copied into the cache of the app, before the crop.
+     */
+    public interface OnCopyProgressListener {
+        /**
+         * @param copiedBytes the number of bytes copied until now
+         * @param totalBytes  the size of the picked image, or -1 if it is not known
+         */
+        void onCopyProgress(long copiedBytes, long totalBytes);
+    }
+
+    /**
+     * Listener notified when the image is saved.
+     */
+    public interface OnImageSavedListener {
+        /**
+         * @param file   the file where the image has been saved
+         * @param result format, quality, size and encoding time of the saved image
+         */
+        void onImageSaved(File file, EncodeResult result);
+    }
+
+    // the image shown in the imageView: the source image (kept to be saved) and, if pre-rendered, the circular image
+    private static class DisplayedImage {
+        private final Bitmap image;
+        private final Bitmap rendered;
+
+        private DisplayedImage(Bitmap image, Bitmap rendered) {
+            this.image = image;
+            this.rendered = rendered;
+        }
     }
 }
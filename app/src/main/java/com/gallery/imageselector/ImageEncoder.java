@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes the saved images following the SaveOptions.
+ */
+final class ImageEncoder {
+    // Build.VERSION_CODES.Q, not available with the compileSdk used
+    private static final int ANDROID_Q = 29;
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * Encode the bitmap in memory.
+     *
+     * @return the encoded image, whose bytes can be written with Encoded.writeTo
+     */
+    static Encoded encode(final Bitmap bitmap, final SaveOptions options) throws Exception {
+        final SaveOptions.Format format = toWrittenFormat(options.getFormat());
+        final Bitmap.CompressFormat compressFormat = toCompressFormat(format);
+        QualitySearch.Encoder<ByteArrayOutputStream> encoder = new QualitySearch.Encoder<ByteArrayOutputStream>() {
+            @Override
+            public ByteArrayOutputStream encode(int quality) throws IOException {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(32, bitmap.getByteCount() / 8));
+                // an empty output must never be written, it would replace the image saved before
+                if (!bitmap.compress(compressFormat, toCompressQuality(format, quality), output) || output.size() == 0) {
+                    throw new IOException("unable to encode the image in " + format + " with quality " + quality);
+                }
+                return output;
+            }
+
+            @Override
+            public long sizeOf(ByteArrayOutputStream output) {
+                return output.size();
+            }
+        };
+
+        long startTime = System.nanoTime();
+        QualitySearch.Attempt<ByteArrayOutputStream> attempt;
+        try {
+            if (options.isLossy() && options.getMaxBytes() > 0) {
+                attempt = QualitySearch.search(options.getMinQuality(), options.getQuality(), options.getMaxBytes(), encoder);
+            } else {
+                attempt = QualitySearch.search(options.getQuality(), options.getQuality(), Long.MAX_VALUE, encoder);
+            }
+        } catch (Exception e) {
+            Metrics.report(StageMetrics.Stage.ENCODE, startTime, 0, 0, bitmap.getWidth(), bitmap.getHeight(), 0, e);
+            throw e;
+        }
+        long encodeTime = System.nanoTime() - startTime;
+        Metrics.report(StageMetrics.Stage.ENCODE, startTime, 0, attempt.size, bitmap.getWidth(), bitmap.getHeight(), 0, null);
+
+        boolean withinBudget = options.getMaxBytes() <= 0 || attempt.size <= options.getMaxBytes();
+        int quality = options.isLossy() ? attempt.quality : 100;
+        return new Encoded(attempt.output, new EncodeResult(format, quality, attempt.size, encodeTime, attempt.attempts, withinBudget));
+    }
+
+    // CompressFormat.WEBP with quality 100 is lossless only from Android 10, before it is lossy, so WEBP_LOSSLESS is written in PNG
+    private static SaveOptions.Format toWrittenFormat(SaveOptions.Format format) {
+        if (format == SaveOptions.Format.WEBP_LOSSLESS && Build.VERSION.SDK_INT < ANDROID_Q) {
+            return SaveOptions.Format.PNG;
+        }
+        return format;
+    }
+
+    private static Bitmap.CompressFormat toCompressFormat(SaveOptions.Format format) {
+        switch (format) {
+            case JPEG:
+                return Bitmap.CompressFormat.JPEG;
+            case WEBP_LOSSY:
+            case WEBP_LOSSLESS:
+                // with the compileSdk used WEBP_LOSSY and WEBP_LOSSLESS are not available, from Android 10 CompressFormat.WEBP is lossless
+                // with quality 100 (below it WEBP_LOSSLESS is written in PNG, see toWrittenFormat)
+                return Bitmap.CompressFormat.WEBP;
+            default:
+                return Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    private static int toCompressQuality(SaveOptions.Format format, int quality) {
+        switch (format) {
+            case WEBP_LOSSY:
+                return Math.min(quality, 99);
+            case WEBP_LOSSLESS:
+            case PNG:
+                return 100;
+            default:
+                return quality;
+        }
+    }
+
+    static final class Encoded {
+        private final ByteArrayOutputStream data;
+        final EncodeResult result;
+
+        private Encoded(ByteArrayOutputStream data, EncodeResult result) {
+            this.data = data;
+            this.result = result;
+        }
+
+        void writeTo(OutputStream outputStream) throws IOException {
+            data.writeTo(outputStream);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gallery.imageselector;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Fingerprint of the content of a saved image: the CRC32 of its pixels, its dimensions and everything that changes the files written
+ * (the SaveOptions, the sizes of the variants and of the circular render).
+ * <br /><br />
+ * GalleryImageSelector records the fingerprint of the last image saved in each file, so when the same image is saved again with the
+ * same settings (es. the app calls saveImage() more times to be sure) the encoding and the writing are skipped.
+ * <br /><br />
+ * The class does not depend on the Android framework, the pixels are passed row by row with a PixelsChecksum.
+ */
+final class ImageFingerprint {
+    private final int width;
+    private final int height;
+    private final long pixelsChecksum;
+    private final SaveOptions saveOptions;
+    private final int[] variantSizes;
+    private final int renderSize;
+
+    ImageFingerprint(int width, int height, long pixelsChecksum, SaveOptions saveOptions, int[] variantSizes, int renderSize) {
+        this.width = width;
+        this.height = height;
+        this.pixelsChecksum = pixelsChecksum;
+        this.saveOptions = saveOptions;
+        this.variantSizes = variantSizes.clone();
+        this.renderSize = renderSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ImageFingerprint)) {
+            return false;
+        }
+        ImageFingerprint other = (ImageFingerprint) o;
+        return width == other.width && height == other.height && pixelsChecksum == other.pixelsChecksum && renderSize == other.renderSize
+                && saveOptions.equals(other.saveOptions) && Arrays.equals(variantSizes, other.variantSizes);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = width;
+        result = 31 * result + height;
+        result = 31 * result + (int) (pixelsChecksum ^ (pixelsChecksum >>> 32));
+        result = 31 * result + saveOptions.hashCode();
+        result = 31 * result + Arrays.hashCode(variantSizes);
+        result = 31 * result + renderSize;
+        return result;
+    }
+
+    /**
+     * CRC32 of the ARGB pixels of an image, updated one row at a time so the whole image is never copied.
+     */
+    static final class PixelsChecksum {
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[0];
+
+        void update(int[] pixels, int offset, int length) {
+            if (buffer.length < length * 4) {
+                buffer = new byte[length * 4];
+            }
+            int position = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int pixel = pixels[i];
+                buffer[position++] = (byte) (pixel >>> 24);
+                buffer[position++] = (byte) (pixel >>> 16);
+                buffer[position++] = (byte) (pixel >>> 8);
+                buffer[position++] = (byte) pixel;
+            }
+            crc.update(buffer, 0, position);
+        }
+
+        long getValue() {
+            return crc.getValue();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Receives the measurements of each stage of the processing of the images (copy, crop, decode, orientation, encode and write),
+ * set it with GalleryImageSelector.setMetricsListener.
+ * <br /><br />
+ * The methods are called on the thread that executed the stage (usually a background thread of the ImagePipeline), so they must be
+ * thread safe and fast, es. AggregatingMetricsListener only records the values.
+ */
+public interface ImageMetricsListener {
+    /**
+     * The listener used by default, it ignores the measurements.
+     */
+    ImageMetricsListener NO_OP = new ImageMetricsListener() {
+        @Override
+        public void onStageCompleted(StageMetrics metrics) {
+        }
+    };
+
+    /**
+     * Called at the end of each stage, also if the stage failed (in this case metrics.getError() returns the cause).
+     */
+    void onStageCompleted(StageMetrics metrics);
+}
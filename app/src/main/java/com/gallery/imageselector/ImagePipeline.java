@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ImagePipeline runs the disk and codec work of GalleryImageSelector (decode, orientation fix, save) on a worker Executor
+ * and delivers the results to a Callback on a callback Executor (in GalleryImageSelector the callback Executor is the main thread).
+ * <br /><br />
+ * A job can be bound to a target (es. the ImageView that will show the result), when a new job is bound to the same target the previous
+ * one is cancelled, so a stale result will never overwrite a newer one.
+ * <br /><br />
+ * The class does not depend on the Android framework, so it can be tested on the JVM passing a direct Executor (es. Runnable::run)
+ * for both the worker and the callback Executor.
+ */
+public class ImagePipeline {
+    /**
+     * Number of threads of the Executor created by newDefaultWorkerExecutor.
+     */
+    public static final int DEFAULT_WORKER_THREADS = 3;
+
+    private final Executor workerExecutor;
+    private final Executor callbackExecutor;
+    // the Requests keep their targets through a WeakReference, otherwise each value would keep its own key alive and the entries would never
+    // be removed. The pending jobs and callbacks can still reference the target (es. the ImageView and its Activity) until they are executed
+    private final Map<Object, Request> boundRequests = new WeakHashMap<>();
+
+    /**
+     * @param workerExecutor   the Executor that will run the jobs (disk and codec work).
+     * @param callbackExecutor the Executor that will deliver the results to the callbacks.
+     */
+    public ImagePipeline(Executor workerExecutor, Executor callbackExecutor) {
+        this.workerExecutor = workerExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Run the job on the worker Executor and deliver its result to the callback on the callback Executor.
+     *
+     * @param job      the work to do.
+     * @param callback the callback that will receive the result, it can be null.
+     * @return the Request that can be used to cancel the job.
+     */
+    public <T> Request submit(Callable<T> job, Callback<T> callback) {
+        return submit(null, job, callback);
+    }
+
+    /**
+     * Like submit(job, callback), but the job receives its Request, so it can check if it has been cancelled.
+     */
+    public <T> Request submit(Job<T> job, Callback<T> callback) {
+        return submit(null, job, callback);
+    }
+
+    /**
+     * Like submit(job, callback), but the job is bound to the target, so any previous job bound to the same target will be cancelled
+     * and its result will not be delivered.
+     *
+     * @param target   the object the result is for (es. an ImageView), it can be null.
+     * @param job      the work to do.
+     * @param callback the callback that will receive the result, it can be null.
+     * @return the Request that can be used to cancel the job.
+     */
+    public <T> Request submit(Object target, final Callable<T> job, Callback<T> callback) {
+        return submit(target, new Job<T>() {
+            @Override
+            public T run(Request request) throws Exception {
+                return job.call();
+            }
+        }, callback);
+    }
+
+    /**
+     * Like submit(target, job, callback), but the job receives its Request, so a long job can check if it has been cancelled
+     * and stop before the end.
+     *
+     * @param target   the object the result is for (es. an ImageView), it can be null.
+     * @param job      the work to do.
+     * @param callback the callback that will receive the result, it can be null.
+     * @return the Request that can be used to cancel the job.
+     */
+    public <T> Request submit(final Object target, final Job<T> job, final Callback<T> callback) {
+        final Request request = new Request(this, target);
+        if (target != null) {
+            Request previous;
+            synchronized (boundRequests) {
+                previous = boundRequests.put(target, request);
+            }
+            if (previous != null) {
+                previous.cancel();
+            }
+        }
+        workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                T result = null;
+                Exception error = null;
+                try {
+                    result = job.run(request);
+                } catch (Exception e) {
+                    error = e;
+                }
+                deliver(request, callback, result, error);
+            }
+        });
+        return request;
+    }
+
+    /**
+     * Cancel the job currently bound to the target, if any.
+     *
+     * @param target the object passed to submit.
+     */
+    public void cancel(Object target) {
+        Request request;
+        synchronized (boundRequests) {
+            request = boundRequests.remove(target);
+        }
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * @param target the object passed to submit.
+     * @return true if a job bound to the target has not delivered its result yet and has not been cancelled.
+     */
+    public boolean isBound(Object target) {
+        synchronized (boundRequests) {
+            return boundRequests.containsKey(target);
+        }
+    }
+
+    /**
+     * Run an action on the callback Executor (es. the main thread), useful to chain jobs that need to touch the UI.
+     */
+    public void runOnCallbackExecutor(Runnable action) {
+        callbackExecutor.execute(action);
+    }
+
+    private <T> void deliver(final Request request, final Callback<T> callback, final T result, final Exception error) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+                unbind(request);
+                if (callback != null) {
+                    if (error == null) {
+                        callback.onSuccess(result);
+                    } else {
+                        callback.onFailure(error);
+                    }
+                }
+            }
+        });
+    }
+
+    private void unbind(Request request) {
+        Object target = request.getTarget();
+        if (target != null) {
+            synchronized (boundRequests) {
+                if (boundRequests.get(target) == request) {
+                    boundRequests.remove(target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the Executor used by default for the jobs, it uses DEFAULT_WORKER_THREADS background threads, so a load is not queued
+     * behind a long save (or behind the copy of a big image). The jobs are not executed in order of submission,
+     * GalleryImageSelector keeps in order only the writes of the same file (es. a save followed by a remove).
+     */
+    public static ExecutorService newDefaultWorkerExecutor() {
+        return Executors.newFixedThreadPool(DEFAULT_WORKER_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GalleryImageSelector-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Create an Executor with a fixed number of background threads, used to process many images in parallel (es. a multiple selection).
+     *
+     * @param threads the number of threads, es. Runtime.getRuntime().availableProcessors()
+     */
+    public static ExecutorService newBoundedWorkerExecutor(int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GalleryImageSelector-parallel-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A job that can check if it has been cancelled.
+     */
+    public interface Job<T> {
+        T run(Request request) throws Exception;
+    }
+
+    /**
+     * Receive the result of a job, the methods are called on the callback Executor.
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Handle of a submitted job, it can be used to cancel it, a cancelled job will not deliver its result.
+     */
+    public static class Request {
+        private final ImagePipeline pipeline;
+        private final WeakReference<Object> target;
+        private volatile boolean cancelled = false;
+
+        private Request(ImagePipeline pipeline, Object target) {
+            this.pipeline = pipeline;
+            this.target = target != null ? new WeakReference<>(target) : null;
+        }
+
+        private Object getTarget() {
+            return target != null ? target.get() : null;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            pipeline.unbind(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores many images on the disk, each one identified by a key (es. the id of a contact), within a maximum total size: when a new image
+ * exceeds the maximum size the least recently used images are deleted.
+ * <br /><br />
+ * The store keeps an index of its images in memory (saved in the "index" file of its directory), so get(key) does not access the disk,
+ * and the directory is listed only once, when the index is loaded, to delete the files left by an interrupted write.
+ * Every image is written into a temporary file and then renamed, so a reader never sees a partially written image.
+ * <br /><br />
+ * The class does not depend on the Android framework, in GalleryImageSelector use GalleryImageSelector.getImageStore(context).
+ */
+public class ImageStore {
+    private static final String INDEX_FILE = "index";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int INDEX_VERSION = 1;
+    private final File directory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);  // in access order, the first is the least recently used
+    private final AtomicInteger tempFileCount = new AtomicInteger();
+    private long maxSize;
+    private long size = 0;
+    private boolean loaded = false;
+
+    /**
+     * @param directory the directory of the store, used only by this store
+     * @param maxSize   the maximum total size in bytes of the images
+     */
+    public ImageStore(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the file of the image saved with the key (the image becomes the most recently used), or null if there is no image with this key
+     */
+    public synchronized File get(String key) {
+        loadIndex();
+        Entry entry = entries.get(key);
+        return entry != null ? new File(directory, entry.fileName) : null;
+    }
+
+    /**
+     * @return the file where the image of the key is saved (or will be saved), it does not check if the image exists and
+     * does not change the least recently used order
+     */
+    public File fileOf(String key) {
+        return new File(directory, fileNameOf(key));
+    }
+
+    public synchronized boolean contains(String key) {
+        loadIndex();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Save an image with the key, replacing the previous image with the same key. The image is written (by the writer) out of the lock
+     * of the store, so many images can be written at the same time, and it replaces the previous one only when it is completely written.
+     * If the total size exceeds the maximum size the least recently used images are deleted, but never the image just saved.
+     *
+     * @param writer writes the image into the stream passed
+     * @return the file of the saved image
+     */
+    public File put(String key, AtomicFiles.Writer writer) throws IOException {
+        synchronized (this) {
+            loadIndex();
+        }
+        directory.mkdirs();
+        String fileName = fileNameOf(key);
+        File tempFile = new File(directory, fileName + "." + tempFileCount.incrementAndGet() + TEMP_SUFFIX);
+        AtomicFiles.writeSynced(tempFile, writer);
+
+        synchronized (this) {
+            File file = new File(directory, fileName);
+            long length = tempFile.length();
+            AtomicFiles.rename(tempFile, file);
+            Entry previous = entries.put(key, new Entry(fileName, length));
+            size += length - (previous != null ? previous.length : 0);
+            if (previous != null) {
+                onRemoved(key, file);
+            }
+            trimToSize(maxSize, key);
+            writeIndex();
+            return file;
+        }
+    }
+
+    /**
+     * Delete the image saved with the key.
+     *
+     * @return true if the image was present
+     */
+    public synchronized boolean remove(String key) {
+        loadIndex();
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        deleteEntry(key, entry);
+        writeIndex();
+        return true;
+    }
+
+    /**
+     * Delete all the images of the store.
+     */
+    public synchronized void clear() {
+        loadIndex();
+        for (Map.Entry<String, Entry> entry : new ArrayList<>(entries.entrySet())) {
+            entries.remove(entry.getKey());
+            deleteEntry(entry.getKey(), entry.getValue());
+        }
+        writeIndex();
+    }
+
+    /**
+     * @return the keys of the saved images, from the least to the most recently used
+     */
+    public synchronized List<String> keys() {
+        loadIndex();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @return the total size in bytes of the saved images
+     */
+    public synchronized long size() {
+        loadIndex();
+        return size;
+    }
+
+    public synchronized long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the maximum total size of the images, if the saved images exceed the new size the least recently used are deleted.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        loadIndex();
+        if (size > maxSize) {
+            trimToSize(maxSize, null);
+            writeIndex();
+        }
+    }
+
+    /**
+     * Called (with the lock of the store) after an image is deleted or replaced, es. to remove it from a memory cache.
+     *
+     * @param file the file of the image (for a replaced image it contains the new image)
+     */
+    protected void onRemoved(String key, File file) {
+    }
+
+    // deletes the least recently used images, except the one with the kept key, until the size is <= maxSize
+    private void trimToSize(long maxSize, String keptKey) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!entry.getKey().equals(keptKey)) {
+                iterator.remove();
+                deleteEntry(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void deleteEntry(String key, Entry entry) {
+        File file = new File(directory, entry.fileName);
+        file.delete();
+        size -= entry.length;
+        onRemoved(key, file);
+    }
+
+    private void loadIndex() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File indexFile = new File(directory, INDEX_FILE);
+        if (indexFile.exists()) {
+            try {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                try {
+                    if (input.readInt() == INDEX_VERSION) {
+                        int count = input.readInt();
+                        for (int i = 0; i < count; i++) {
+                            String key = input.readUTF();
+                            long length = input.readLong();
+                            entries.put(key, new Entry(fileNameOf(key), length));
+                        }
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // corrupted index, the images not indexed are deleted below
+                e.printStackTrace();
+                entries.clear();
+            }
+        }
+
+        // the only scan of the directory: deletes the temporary files of the interrupted writes and the files not indexed,
+        // and removes from the index the images deleted by others
+        String[] names = directory.list();
+        Set<String> fileNames = new HashSet<>(names != null ? Arrays.asList(names) : new ArrayList<String>());
+        Set<String> indexedNames = new HashSet<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (fileNames.contains(entry.fileName)) {
+                indexedNames.add(entry.fileName);
+                size += entry.length;
+            } else {
+                iterator.remove();
+            }
+        }
+        for (String name : fileNames) {
+            if (!name.equals(INDEX_FILE) && !indexedNames.contains(name)) {
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    // the index is written in a temporary file and renamed, like the images
+    private void writeIndex() {
+        directory.mkdirs();
+        File tempFile = new File(directory, INDEX_FILE + TEMP_SUFFIX);
+        try {
+            AtomicFiles.write(new File(directory, INDEX_FILE), tempFile, new AtomicFiles.Writer() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+                    output.writeInt(INDEX_VERSION);
+                    output.writeInt(entries.size());
+                    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                        output.writeUTF(entry.getKey());
+                        output.writeLong(entry.getValue().length);
+                    }
+                    output.flush();
+                }
+            });
+        } catch (IOException e) {
+            // the previous index is kept, the images not indexed in it will be deleted at the next load
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the name of the file of the key (the SHA-1 of the key, so any key is a valid file name)
+     */
+    static String fileNameOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final String fileName;
+        private final long length;
+
+        private Entry(String fileName, long length) {
+            this.fileName = fileName;
+            this.length = length;
+        }
+    }
+}
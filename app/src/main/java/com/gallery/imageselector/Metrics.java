@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+
+/**
+ * Sends the measurements of the stages to the ImageMetricsListener set with GalleryImageSelector.setMetricsListener.
+ * With the default listener (ImageMetricsListener.NO_OP) nothing is measured or allocated.
+ */
+final class Metrics {
+    private static volatile ImageMetricsListener listener = ImageMetricsListener.NO_OP;
+
+    private Metrics() {
+    }
+
+    static void setListener(ImageMetricsListener metricsListener) {
+        listener = metricsListener != null ? metricsListener : ImageMetricsListener.NO_OP;
+    }
+
+    static ImageMetricsListener getListener() {
+        return listener;
+    }
+
+    static boolean isEnabled() {
+        return listener != ImageMetricsListener.NO_OP;
+    }
+
+    /**
+     * @return the size of the file, or 0 if the metrics are disabled (to avoid the access to the disk)
+     */
+    static long fileLength(String path) {
+        return isEnabled() ? new File(path).length() : 0;
+    }
+
+    /**
+     * Report a stage that produced a bitmap (it can be null if the stage failed).
+     */
+    static void report(StageMetrics.Stage stage, long startTime, long bytesRead, Bitmap bitmap, Throwable error) {
+        if (isEnabled()) {
+            if (bitmap != null) {
+                report(stage, startTime, bytesRead, 0, bitmap.getWidth(), bitmap.getHeight(), bitmap.getAllocationByteCount(), error);
+            } else {
+                report(stage, startTime, bytesRead, 0, 0, 0, 0, error);
+            }
+        }
+    }
+
+    /**
+     * @param startTime the value of System.nanoTime() at the start of the stage
+     */
+    static void report(StageMetrics.Stage stage, long startTime, long bytesRead, long bytesWritten, int width, int height, long allocationBytes, Throwable error) {
+        ImageMetricsListener metricsListener = listener;
+        if (metricsListener == ImageMetricsListener.NO_OP) {
+            return;
+        }
+        try {
+            metricsListener.onStageCompleted(new StageMetrics(stage, System.nanoTime() - startTime, bytesRead, bytesWritten, width, height, allocationBytes, error));
+        } catch (RuntimeException e) {
+            // an error of the listener must not stop the processing of the image
+            e.printStackTrace();
+        }
+    }
+}
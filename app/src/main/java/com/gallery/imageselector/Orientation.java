@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Geometry of the EXIF orientations (the values of the EXIF tag Orientation), independent from the Android framework.
+ * <br /><br />
+ * The source coordinates are the ones of the pixels stored in the file, the oriented coordinates are the ones of the image as it should be
+ * displayed (after the rotation and/or the flip described by the EXIF orientation).
+ */
+final class Orientation {
+    static final int NORMAL = 1;
+    static final int FLIP_HORIZONTAL = 2;
+    static final int ROTATE_180 = 3;
+    static final int FLIP_VERTICAL = 4;
+    static final int TRANSPOSE = 5;
+    static final int ROTATE_90 = 6;
+    static final int TRANSVERSE = 7;
+    static final int ROTATE_270 = 8;
+
+    private Orientation() {
+    }
+
+    /**
+     * @return true if the orientation rotates the image by 90 or 270 degrees (so the width and the height are swapped)
+     */
+    static boolean swapsDimensions(int orientation) {
+        return orientation == TRANSPOSE || orientation == ROTATE_90 || orientation == TRANSVERSE || orientation == ROTATE_270;
+    }
+
+    /**
+     * @return true if the orientation changes the image
+     */
+    static boolean isTransformed(int orientation) {
+        return orientation >= FLIP_HORIZONTAL && orientation <= ROTATE_270;
+    }
+
+    /**
+     * Map a rectangle in the oriented coordinates of an image to the source coordinates.
+     *
+     * @param sourceWidth  width of the image stored in the file
+     * @param sourceHeight height of the image stored in the file
+     * @return the rectangle in source coordinates as {left, top, right, bottom}
+     */
+    static int[] toSourceRect(int orientation, int sourceWidth, int sourceHeight, int left, int top, int right, int bottom) {
+        int[] first = toSourcePoint(orientation, sourceWidth, sourceHeight, left, top);
+        int[] second = toSourcePoint(orientation, sourceWidth, sourceHeight, right, bottom);
+        return new int[]{Math.min(first[0], second[0]), Math.min(first[1], second[1]), Math.max(first[0], second[0]), Math.max(first[1], second[1])};
+    }
+
+    private static int[] toSourcePoint(int orientation, int w, int h, int u, int v) {
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                return new int[]{w - u, v};
+            case ROTATE_180:
+                return new int[]{w - u, h - v};
+            case FLIP_VERTICAL:
+                return new int[]{u, h - v};
+            case TRANSPOSE:
+                return new int[]{v, u};
+            case ROTATE_90:
+                return new int[]{v, h - u};
+            case TRANSVERSE:
+                return new int[]{w - v, h - u};
+            case ROTATE_270:
+                return new int[]{w - v, u};
+            default:
+                return new int[]{u, v};
+        }
+    }
+
+    /**
+     * Compute the values (in the order of android.graphics.Matrix.setValues) of the affine matrix that scales an image of the passed size
+     * and applies the orientation, translated so that the result starts at (0, 0).
+     *
+     * @param width  width of the image to transform
+     * @param height height of the image to transform
+     * @param scale  scale factor applied together with the orientation
+     * @return the 9 values of the matrix
+     */
+    static float[] matrixValues(int orientation, int width, int height, float scale) {
+        // linear part: x' = a * x + b * y, y' = c * x + d * y
+        float a, b, c, d;
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                a = -1; b = 0; c = 0; d = 1;
+                break;
+            case ROTATE_180:
+                a = -1; b = 0; c = 0; d = -1;
+                break;
+            case FLIP_VERTICAL:
+                a = 1; b = 0; c = 0; d = -1;
+                break;
+            case TRANSPOSE:
+                a = 0; b = 1; c = 1; d = 0;
+                break;
+            case ROTATE_90:
+                a = 0; b = -1; c = 1; d = 0;
+                break;
+            case TRANSVERSE:
+                a = 0; b = -1; c = -1; d = 0;
+                break;
+            case ROTATE_270:
+                a = 0; b = 1; c = -1; d = 0;
+                break;
+            default:
+                a = 1; b = 0; c = 0; d = 1;
+        }
+        a *= scale;
+        b *= scale;
+        c *= scale;
+        d *= scale;
+        // the translation moves the minimum corner of the transformed image to the origin
+        float translateX = -Math.min(0, a * width) - Math.min(0, b * height);
+        float translateY = -Math.min(0, c * width) - Math.min(0, d * height);
+        return new float[]{a, b, translateX, c, d, translateY, 0, 0, 1};
+    }
+}
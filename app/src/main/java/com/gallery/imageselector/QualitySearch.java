@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Binary search of the highest encoding quality whose output fits in a maximum number of bytes.
+ * It assumes that the size of the output grows with the quality, that is true (with small exceptions) for JPEG and WebP.
+ */
+final class QualitySearch {
+    private QualitySearch() {
+    }
+
+    /**
+     * @param minQuality lowest quality that can be used
+     * @param maxQuality highest quality that can be used, it is tried first
+     * @param maxBytes   maximum number of bytes of the output
+     * @param encoder    the encoder to search with
+     * @return the output with the highest quality that fits in maxBytes, or the output at minQuality if none fits
+     */
+    static <T> Attempt<T> search(int minQuality, int maxQuality, long maxBytes, Encoder<T> encoder) throws Exception {
+        Attempt<T> best = encode(encoder, maxQuality);
+        int attempts = 1;
+        if (best.size > maxBytes && minQuality < maxQuality) {
+            Attempt<T> smallest = null;
+            int low = minQuality;
+            int high = maxQuality - 1;
+            best = null;
+            while (low <= high) {
+                int quality = (low + high) >>> 1;
+                Attempt<T> attempt = encode(encoder, quality);
+                attempts++;
+                if (attempt.size <= maxBytes) {
+                    best = attempt;
+                    low = quality + 1;
+                } else {
+                    smallest = attempt;
+                    high = quality - 1;
+                }
+            }
+            if (best == null) {
+                // even the minimum quality does not fit (the search always ends trying it)
+                best = smallest;
+            }
+        }
+        best.attempts = attempts;
+        return best;
+    }
+
+    private static <T> Attempt<T> encode(Encoder<T> encoder, int quality) throws Exception {
+        T output = encoder.encode(quality);
+        return new Attempt<>(output, quality, encoder.sizeOf(output));
+    }
+
+    interface Encoder<T> {
+        T encode(int quality) throws Exception;
+
+        long sizeOf(T output);
+    }
+
+    static final class Attempt<T> {
+        final T output;
+        final int quality;
+        final long size;
+        int attempts;
+
+        private Attempt(T output, int quality, long size) {
+            this.output = output;
+            this.quality = quality;
+            this.size = size;
+        }
+    }
+}
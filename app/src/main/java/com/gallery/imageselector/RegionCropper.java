@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Crop engine used by GalleryImageSelector.CROP_MODE_BUILT_IN: it decodes only the cropped region of the image, subsampled for the
+ * target size, with BitmapRegionDecoder, and applies the EXIF orientation and the final scale in the same transformation.
+ * This way the peak memory depends on the size of the output, not on the size of the picked photo.
+ */
+final class RegionCropper {
+    private RegionCropper() {
+    }
+
+    /**
+     * @param path             path of the image to crop
+     * @param cropRectProvider provides the crop rectangle in the oriented coordinates of the image (as the user sees it)
+     * @param targetSize       the width and height (in pixels) that the output should cover, <= 0 to keep the resolution of the region
+     * @param previewSize      the size of a preview of the same region, decoded before the cropped image with the same BitmapRegionDecoder
+     *                         (creating it is the expensive part for JPEG, it scans the whole file), <= 0 for no preview
+     * @param previewListener  receives the preview in the thread of the crop, it can be null
+     * @return the cropped image, or null if the image can not be decoded
+     */
+    static Bitmap crop(String path, GalleryImageSelector.CropRectProvider cropRectProvider, int targetSize, int previewSize, PreviewListener previewListener) throws IOException {
+        long startTime = System.nanoTime();
+        int orientation = BitmapDecoder.readOrientation(path);
+        return crop(startTime, path, null, Metrics.fileLength(path), orientation, cropRectProvider, targetSize, previewSize, previewListener);
+    }
+
+    /**
+     * Like crop(path, cropRectProvider, targetSize, previewSize, previewListener), but the image is read from a seekable file descriptor
+     * (es. the one of a content Uri), so it does not need to be copied into a file first.
+     *
+     * @param length the size of the image in bytes (ParcelFileDescriptor.getStatSize), used only for the metrics
+     */
+    static Bitmap crop(FileDescriptor fileDescriptor, long length, GalleryImageSelector.CropRectProvider cropRectProvider, int targetSize,
+                       int previewSize, PreviewListener previewListener) throws IOException {
+        long startTime = System.nanoTime();
+        // the descriptor could have been read before
+        BitmapDecoder.rewind(fileDescriptor);
+        int orientation = BitmapDecoder.readOrientation(fileDescriptor);
+        BitmapDecoder.rewind(fileDescriptor);
+        return crop(startTime, null, fileDescriptor, length, orientation, cropRectProvider, targetSize, previewSize, previewListener);
+    }
+
+    // crops from the path or, if it is null, from the file descriptor
+    private static Bitmap crop(long startTime, String path, FileDescriptor fileDescriptor, long length, int orientation,
+                               GalleryImageSelector.CropRectProvider cropRectProvider, int targetSize, int previewSize,
+                               PreviewListener previewListener) throws IOException {
+        Bitmap region;
+        try {
+            BitmapRegionDecoder decoder = path != null ? BitmapRegionDecoder.newInstance(path, false) : BitmapRegionDecoder.newInstance(fileDescriptor, false);
+            try {
+                Rect cropRect = getCropRect(decoder, cropRectProvider, orientation);
+                if (previewListener != null && previewSize > 0) {
+                    Bitmap preview = decodeRegion(decoder, cropRect, orientation, previewSize);
+                    if (preview != null) {
+                        previewListener.onPreview(BitmapDecoder.transform(preview, orientation, previewSize, previewSize));
+                    }
+                }
+                region = decodeRegion(decoder, cropRect, orientation, targetSize);
+            } finally {
+                decoder.recycle();
+            }
+        } catch (IOException | RuntimeException e) {
+            Metrics.report(StageMetrics.Stage.CROP, startTime, length, null, e);
+            throw e;
+        }
+        Metrics.report(StageMetrics.Stage.CROP, startTime, length, region, region == null ? new IOException("unable to decode the region of " + (path != null ? path : "the file descriptor")) : null);
+        if (region == null) {
+            return null;
+        }
+
+        // orientation and final scale in a single transformation
+        return BitmapDecoder.transform(region, orientation, targetSize, targetSize);
+    }
+
+    // returns the crop rectangle in the oriented coordinates of the image
+    private static Rect getCropRect(BitmapRegionDecoder decoder, GalleryImageSelector.CropRectProvider cropRectProvider, int orientation) {
+        boolean swap = Orientation.swapsDimensions(orientation);
+        int orientedWidth = swap ? decoder.getHeight() : decoder.getWidth();
+        int orientedHeight = swap ? decoder.getWidth() : decoder.getHeight();
+        Rect cropRect = cropRectProvider.getCropRect(orientedWidth, orientedHeight);
+        if (cropRect == null || !cropRect.intersect(0, 0, orientedWidth, orientedHeight) || cropRect.isEmpty()) {
+            cropRect = GalleryImageSelector.CENTER_SQUARE.getCropRect(orientedWidth, orientedHeight);
+        }
+        return cropRect;
+    }
+
+    // decodes the cropped region, subsampled for the target size but not oriented
+    private static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect cropRect, int orientation, int targetSize) {
+        int[] source = Orientation.toSourceRect(orientation, decoder.getWidth(), decoder.getHeight(), cropRect.left, cropRect.top, cropRect.right, cropRect.bottom);
+        Rect sourceRect = new Rect(source[0], source[1], source[2], source[3]);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = SampleSize.calculate(cropRect.width(), cropRect.height(), targetSize, targetSize);
+        // no pooled inBitmap: unlike BitmapFactory, BitmapRegionDecoder does not resize it, it keeps its size and clips the region
+        // into it, and the sampled size of the region depends on the codec, so a pooled bitmap could not be reconfigured exactly.
+        // The region is still mutable, so after the transformation it goes back to the pool
+        options.inMutable = true;
+        return decoder.decodeRegion(sourceRect, options);
+    }
+
+    /**
+     * Receives the preview decoded by crop before the cropped image.
+     */
+    interface PreviewListener {
+        void onPreview(Bitmap preview);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gallery.imageselector;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of the request codes used by the GalleryImageSelector alive, so two of them never receive the same code.
+ * <br /><br />
+ * The codes are assigned in pairs (the pick code and the crop code, pick + 1) starting from base, there are MAX_PAIRS pairs.
+ * Each owner asks for a preferred pair (es. derived from the id of its ImageView, so after the recreation of the activity the new owner
+ * gets the same codes of the old one), if the pair is used by another owner the next free pair is assigned.
+ * A pair becomes free when its owner is garbage collected or released (es. its activity has been destroyed).
+ * <br /><br />
+ * The class does not depend on the Android framework.
+ */
+final class RequestCodeRegistry {
+    static final int MAX_PAIRS = 0x2000;
+    private final int base;
+    private final Map<Integer, WeakReference<Owner>> owners = new HashMap<>();
+
+    /**
+     * @param base the first request code, base + 2 * MAX_PAIRS must be in the lower 16 bits (required by Fragment.startActivityForResult)
+     */
+    RequestCodeRegistry(int base) {
+        this.base = base;
+    }
+
+    /**
+     * @param preferredPair the preferred pair, any int (it is reduced modulo MAX_PAIRS)
+     * @param owner         the owner of the codes, it is referenced weakly
+     * @return the pick request code assigned to the owner, the crop request code is the next one
+     * @throws IllegalStateException if all the pairs are used
+     */
+    synchronized int acquire(int preferredPair, Owner owner) {
+        int start = preferredPair & (MAX_PAIRS - 1);
+        for (int i = 0; i < MAX_PAIRS; i++) {
+            int code = base + (((start + i) & (MAX_PAIRS - 1)) << 1);
+            if (!isUsed(code) && !isUsed(code + 1)) {
+                owners.put(code, new WeakReference<>(owner));
+                owners.put(code + 1, new WeakReference<>(owner));
+                return code;
+            }
+        }
+        throw new IllegalStateException("too many GalleryImageSelector alive, all the " + MAX_PAIRS + " pairs of request codes are used");
+    }
+
+    /**
+     * Assign to the owner the codes set by the app, releasing the codes it had before.
+     *
+     * @throws IllegalArgumentException if one of the codes is used by another owner
+     */
+    synchronized void replace(int previousPickCode, int previousCropCode, int pickCode, int cropCode, Owner owner) {
+        if (isUsedByOther(pickCode, owner) || isUsedByOther(cropCode, owner)) {
+            throw new IllegalArgumentException("the request codes " + pickCode + ", " + cropCode + " are already used by another GalleryImageSelector");
+        }
+        release(previousPickCode, owner);
+        release(previousCropCode, owner);
+        owners.put(pickCode, new WeakReference<>(owner));
+        owners.put(cropCode, new WeakReference<>(owner));
+    }
+
+    private void release(int code, Owner owner) {
+        if (getOwner(code) == owner) {
+            owners.remove(code);
+        }
+    }
+
+    private boolean isUsedByOther(int code, Owner owner) {
+        return isUsed(code) && getOwner(code) != owner;
+    }
+
+    // a code is used while its owner is alive and not released
+    private boolean isUsed(int code) {
+        Owner owner = getOwner(code);
+        if (owner == null || owner.isReleased()) {
+            owners.remove(code);
+            return false;
+        }
+        return true;
+    }
+
+    private Owner getOwner(int code) {
+        WeakReference<Owner> reference = owners.get(code);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * The owner of a pair of request codes.
+     */
+    interface Owner {
+        /**
+         * @return true if the owner will not receive results anymore, so its codes can be assigned to another owner
+         */
+        boolean isReleased();
+    }
+}
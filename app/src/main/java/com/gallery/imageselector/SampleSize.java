@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Computations used to decode an image at the size it will be displayed, instead of at its full resolution.
+ * A target size <= 0 means no limit on that dimension.
+ */
+final class SampleSize {
+    private SampleSize() {
+    }
+
+    /**
+     * Calculate the largest power of 2 inSampleSize that keeps the decoded image at least as large as the target size
+     * in both the dimensions (the decoded image will then be scaled down to the exact size with scaleToCover).
+     *
+     * @param width      width of the source image
+     * @param height     height of the source image
+     * @param reqWidth   target width
+     * @param reqHeight  target height
+     * @return the inSampleSize to use for BitmapFactory.Options
+     */
+    static int calculate(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (width <= 0 || height <= 0 || (reqWidth <= 0 && reqHeight <= 0)) {
+            return inSampleSize;
+        }
+        while (fits(width / (inSampleSize * 2), reqWidth) && fits(height / (inSampleSize * 2), reqHeight)) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Calculate the scale factor that reduces an image of the passed size to the smallest size that still covers the target size,
+     * the result is never greater than 1 (the images are never scaled up).
+     *
+     * @return the scale factor to apply to the image, 1 if the image should not be scaled
+     */
+    static float scaleToCover(int width, int height, int reqWidth, int reqHeight) {
+        if (width <= 0 || height <= 0 || (reqWidth <= 0 && reqHeight <= 0)) {
+            return 1;
+        }
+        float widthScale = reqWidth > 0 ? (float) reqWidth / width : 0;
+        float heightScale = reqHeight > 0 ? (float) reqHeight / height : 0;
+        return Math.min(1, Math.max(widthScale, heightScale));
+    }
+
+    private static boolean fits(int sampledSize, int reqSize) {
+        return sampledSize >= 1 && sampledSize >= reqSize;
+    }
+}
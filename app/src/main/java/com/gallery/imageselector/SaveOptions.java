@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Options used by GalleryImageSelector to encode the saved image: the format, the quality and optionally the maximum number
+ * of bytes of the encoded image.
+ * <br /><br />
+ * When a maximum number of bytes is set and the format is lossy (JPEG or WEBP_LOSSY) the encoder searches the highest quality
+ * (not greater than the quality set and not lower than the minimum quality) whose output fits in that number of bytes.
+ * Lossless formats ignore the quality, so with them the maximum number of bytes can only be reported as exceeded (see EncodeResult.isWithinBudget()).
+ * <br /><br />
+ * The default options (DEFAULT) encode the image in PNG, like the previous versions of the library.
+ */
+public final class SaveOptions {
+    public static final SaveOptions DEFAULT = new Builder().build();
+    private final Format format;
+    private final int quality;
+    private final int minQuality;
+    private final long maxBytes;
+
+    private SaveOptions(Builder builder) {
+        this.format = builder.format;
+        this.quality = builder.quality;
+        this.minQuality = builder.minQuality;
+        this.maxBytes = builder.maxBytes;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getMinQuality() {
+        return minQuality;
+    }
+
+    /**
+     * @return the maximum number of bytes of the encoded image, 0 if there is no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if the quality set affects the size of the encoded image
+     */
+    public boolean isLossy() {
+        return format == Format.JPEG || format == Format.WEBP_LOSSY;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SaveOptions)) {
+            return false;
+        }
+        SaveOptions other = (SaveOptions) o;
+        return format == other.format && quality == other.quality && minQuality == other.minQuality && maxBytes == other.maxBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = format.hashCode();
+        result = 31 * result + quality;
+        result = 31 * result + minQuality;
+        result = 31 * result + (int) (maxBytes ^ (maxBytes >>> 32));
+        return result;
+    }
+
+    public enum Format {
+        PNG,
+        JPEG,
+        WEBP_LOSSY,
+        // below Android 10 it is written in PNG, since CompressFormat.WEBP is never lossless there (EncodeResult.getFormat() returns PNG)
+        WEBP_LOSSLESS
+    }
+
+    public static class Builder {
+        private Format format = Format.PNG;
+        private int quality = 100;
+        private int minQuality = 40;
+        private long maxBytes = 0;
+
+        public Builder setFormat(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param quality the quality (0-100) used to encode the image with a lossy format, the default is 100.
+         */
+        public Builder setQuality(int quality) {
+            this.quality = clampQuality(quality);
+            return this;
+        }
+
+        /**
+         * @param minQuality the lowest quality (0-100) that the encoder can use to respect the maximum number of bytes, the default is 40.
+         */
+        public Builder setMinQuality(int minQuality) {
+            this.minQuality = clampQuality(minQuality);
+            return this;
+        }
+
+        /**
+         * @param maxBytes the maximum number of bytes of the encoded image, 0 (the default) for no limit.
+         */
+        public Builder setMaxBytes(long maxBytes) {
+            this.maxBytes = Math.max(0, maxBytes);
+            return this;
+        }
+
+        public SaveOptions build() {
+            if (minQuality > quality) {
+                minQuality = quality;
+            }
+            return new SaveOptions(this);
+        }
+
+        private static int clampQuality(int quality) {
+            return Math.max(0, Math.min(100, quality));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pool of reusable objects (bitmaps in BitmapPool) grouped in size classes (powers of 2 of their capacity in bytes), bounded by the
+ * total capacity of the pooled objects, with the least recently released objects evicted first.
+ * <br /><br />
+ * A request for n bytes looks only in the size class of n and in the next one, so the returned object is never more than 4 times
+ * larger than needed. The class does not depend on the Android framework.
+ */
+abstract class SizeClassPool<T> {
+    private final Map<Integer, ArrayDeque<T>> classes = new HashMap<>();
+    // all the pooled objects, from the least recently released
+    private final ArrayDeque<T> order = new ArrayDeque<>();
+    private long maxSize;
+    private long size = 0;
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int evictionCount = 0;
+
+    SizeClassPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the capacity in bytes of the object
+     */
+    protected abstract int capacityOf(T object);
+
+    /**
+     * Called when an object is removed from the pool to respect its maximum size.
+     */
+    protected abstract void onEvicted(T object);
+
+    /**
+     * Remove from the pool an object with a capacity of at least requiredBytes that satisfies the filter.
+     *
+     * @param filter it can be null
+     * @return the object, or null if the pool has not a suitable one
+     */
+    synchronized T acquire(int requiredBytes, Filter<T> filter) {
+        int sizeClass = sizeClassOf(requiredBytes);
+        for (int i = sizeClass; i <= sizeClass + 1; i++) {
+            ArrayDeque<T> objects = classes.get(i);
+            if (objects == null) {
+                continue;
+            }
+            Iterator<T> iterator = objects.descendingIterator();
+            while (iterator.hasNext()) {
+                T object = iterator.next();
+                if (capacityOf(object) >= requiredBytes && (filter == null || filter.accept(object))) {
+                    iterator.remove();
+                    order.remove(object);
+                    size -= capacityOf(object);
+                    hitCount++;
+                    return object;
+                }
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Add the object to the pool, evicting the least recently released objects if the pool exceeds its maximum size.
+     *
+     * @return false if the object is larger than the maximum size of the pool (so it was not added)
+     */
+    synchronized boolean release(T object) {
+        int capacity = capacityOf(object);
+        if (capacity > maxSize || order.contains(object)) {
+            return false;
+        }
+        ArrayDeque<T> objects = classes.get(sizeClassOf(capacity));
+        if (objects == null) {
+            objects = new ArrayDeque<>();
+            classes.put(sizeClassOf(capacity), objects);
+        }
+        objects.addLast(object);
+        order.addLast(object);
+        size += capacity;
+        trimToSize(maxSize);
+        return true;
+    }
+
+    /**
+     * Evict the least recently released objects until the total capacity of the pool is not greater than maxSize.
+     */
+    synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && !order.isEmpty()) {
+            T object = order.removeFirst();
+            classes.get(sizeClassOf(capacityOf(object))).remove(object);
+            size -= capacityOf(object);
+            evictionCount++;
+            onEvicted(object);
+        }
+    }
+
+    synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    synchronized long maxSize() {
+        return maxSize;
+    }
+
+    synchronized int hitCount() {
+        return hitCount;
+    }
+
+    synchronized int missCount() {
+        return missCount;
+    }
+
+    synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the index of the smallest power of 2 that is >= bytes
+     */
+    static int sizeClassOf(int bytes) {
+        return bytes <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes - 1);
+    }
+
+    interface Filter<T> {
+        boolean accept(T object);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Luca Martino.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copyFile of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gallery.imageselector;
+
+/**
+ * Measurements of one stage of the processing of an image (es. the decode of the cropped image), sent to the ImageMetricsListener.
+ * The values that do not apply to a stage are 0 (es. the decoded dimensions of the copy).
+ */
+public final class StageMetrics {
+    private final Stage stage;
+    private final long durationNanos;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final int width;
+    private final int height;
+    private final long allocationBytes;
+    private final Throwable error;
+
+    StageMetrics(Stage stage, long durationNanos, long bytesRead, long bytesWritten, int width, int height, long allocationBytes, Throwable error) {
+        this.stage = stage;
+        this.durationNanos = durationNanos;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.width = width;
+        this.height = height;
+        this.allocationBytes = allocationBytes;
+        this.error = error;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return the number of bytes read from the source (es. the bytes of the picked image for COPY and DECODE)
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of bytes written (es. the bytes copied for COPY or the bytes of the encoded image for ENCODE and WRITE)
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the width of the bitmap produced (or encoded) by the stage
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the bitmap produced (or encoded) by the stage
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of bytes of the bitmap allocated (or taken from the BitmapPool) by the stage
+     */
+    public long getAllocationBytes() {
+        return allocationBytes;
+    }
+
+    /**
+     * @return the cause of the failure of the stage, or null if the stage completed successfully
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{stage=" + stage + ", durationMs=" + (durationNanos / 1000000f) + ", bytesRead=" + bytesRead + ", bytesWritten=" + bytesWritten
+                + ", width=" + width + ", height=" + height + ", allocationBytes=" + allocationBytes + ", error=" + error + "}";
+    }
+
+    /**
+     * The stages of the processing of an image.
+     */
+    public enum Stage {
+        /**
+         * Copy of the picked image (Uri) into the cache.
+         */
+        COPY,
+        /**
+         * Crop of the image: the region decode for CROP_MODE_BUILT_IN, or the round trip to the crop app for CROP_MODE_EXTERNAL.
+         */
+        CROP,
+        /**
+         * Decode of an image file (subsampled for the target size).
+         */
+        DECODE,
+        /**
+         * Application of the EXIF orientation and of the final scale to the decoded image.
+         */
+        ORIENTATION,
+        /**
+         * Encode of the image to save, following the SaveOptions.
+         */
+        ENCODE,
+        /**
+         * Writing of the encoded image into its file.
+         */
+        WRITE
+    }
+}
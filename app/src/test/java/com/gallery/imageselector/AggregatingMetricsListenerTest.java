@@ -0,0 +1,53 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AggregatingMetricsListenerTest {
+
+    @Test
+    public void percentiles_useNearestRank() {
+        AggregatingMetricsListener listener = new AggregatingMetricsListener();
+        for (int i = 1; i <= 100; i++) {
+            listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.DECODE, i, 10, 0, 0, 0, 4, null));
+        }
+        AggregatingMetricsListener.Summary summary = listener.getSummary(StageMetrics.Stage.DECODE);
+        assertEquals(100, summary.getCount());
+        assertEquals(50, summary.getP50Nanos());
+        assertEquals(95, summary.getP95Nanos());
+        assertEquals(1000, summary.getBytesRead());
+        assertEquals(400, summary.getAllocationBytes());
+    }
+
+    @Test
+    public void percentiles_useOnlyLastSamples() {
+        AggregatingMetricsListener listener = new AggregatingMetricsListener();
+        for (int i = 0; i < AggregatingMetricsListener.SAMPLES_PER_STAGE; i++) {
+            listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.COPY, 1000, 0, 0, 0, 0, 0, null));
+        }
+        for (int i = 0; i < AggregatingMetricsListener.SAMPLES_PER_STAGE; i++) {
+            listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.COPY, 1, 0, 0, 0, 0, 0, null));
+        }
+        assertEquals(1, listener.getSummary(StageMetrics.Stage.COPY).getP95Nanos());
+        assertEquals(2 * AggregatingMetricsListener.SAMPLES_PER_STAGE, listener.getSummary(StageMetrics.Stage.COPY).getCount());
+    }
+
+    @Test
+    public void errors_areCountedByCause() {
+        AggregatingMetricsListener listener = new AggregatingMetricsListener();
+        listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.WRITE, 5, 0, 0, 0, 0, 0, new IOException()));
+        listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.WRITE, 5, 0, 0, 0, 0, 0, new IOException()));
+        listener.onStageCompleted(new StageMetrics(StageMetrics.Stage.WRITE, 5, 0, 100, 0, 0, 0, null));
+        AggregatingMetricsListener.Summary summary = listener.getSummary(StageMetrics.Stage.WRITE);
+        assertEquals(2, summary.getErrorCount());
+        assertEquals(Integer.valueOf(2), summary.getErrorCauses().get(IOException.class.getName()));
+        assertEquals(100, summary.getBytesWritten());
+
+        listener.reset();
+        assertEquals(0, listener.getSummary(StageMetrics.Stage.WRITE).getCount());
+        assertTrue(listener.getSummaries().isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.gallery.imageselector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class ChannelCopierTest {
+    // not a multiple of the buffer size, to check that only the bytes read are written
+    private static final int SIZE = ChannelCopier.BUFFER_SIZE * 3 + 1234;
+    private byte[] data;
+    private File source;
+    private File destination;
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[SIZE];
+        new Random(42).nextBytes(data);
+        source = File.createTempFile("source", ".jpg");
+        destination = File.createTempFile("destination", ".jpg");
+        Files.write(source.toPath(), data);
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        destination.delete();
+    }
+
+    @Test
+    public void fileChannelCopy_isExact() throws IOException {
+        try (FileInputStream input = new FileInputStream(source); FileOutputStream output = new FileOutputStream(destination)) {
+            assertEquals(SIZE, ChannelCopier.copy(input.getChannel(), output.getChannel(), input.getChannel().size(), null));
+        }
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void streamCopy_isExact() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(destination)) {
+            assertEquals(SIZE, ChannelCopier.copy(Channels.newChannel(new ByteArrayInputStream(data)), output.getChannel(), -1, null));
+        }
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void progress_reachesTotal() throws IOException {
+        final long[] last = {0, 0};
+        try (FileInputStream input = new FileInputStream(source); FileOutputStream output = new FileOutputStream(destination)) {
+            ChannelCopier.copy(Channels.newChannel(input), output.getChannel(), SIZE, new ChannelCopier.CopyListener() {
+                @Override
+                public boolean onProgress(long copiedBytes, long totalBytes) {
+                    assertTrue(copiedBytes >= last[0]);
+                    last[0] = copiedBytes;
+                    last[1] = totalBytes;
+                    return true;
+                }
+            });
+        }
+        assertEquals(SIZE, last[0]);
+        assertEquals(SIZE, last[1]);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void listener_cancelsCopy() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(destination)) {
+            ChannelCopier.copy(Channels.newChannel(new ByteArrayInputStream(data)), output.getChannel(), -1, new ChannelCopier.CopyListener() {
+                @Override
+                public boolean onProgress(long copiedBytes, long totalBytes) {
+                    return false;
+                }
+            });
+        }
+    }
+}
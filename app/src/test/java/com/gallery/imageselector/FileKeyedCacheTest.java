@@ -0,0 +1,107 @@
+package com.gallery.imageselector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileKeyedCacheTest {
+    private File directory;
+    private File first;
+    private File second;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file_keyed_cache").toFile();
+        first = write("first", 100);
+        second = write("second", 100);
+    }
+
+    @After
+    public void tearDown() {
+        first.delete();
+        second.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void get_missesAfterFileIsModified() throws IOException {
+        TestCache cache = new TestCache(10000);
+        cache.put(first, 64, new byte[10]);
+        assertNotNull(cache.get(first, 64));
+
+        // same length, different last modified time
+        assertTrue(first.setLastModified(first.lastModified() - 10000));
+        assertNull(cache.get(first, 64));
+
+        cache.put(first, 64, new byte[10]);
+        // same last modified time, different length
+        long lastModified = first.lastModified();
+        write("first", 200);
+        assertTrue(first.setLastModified(lastModified));
+        assertNull(cache.get(first, 64));
+    }
+
+    @Test
+    public void invalidate_removesAllSizesOfFileOnly() {
+        TestCache cache = new TestCache(10000);
+        cache.put(first, 64, new byte[10]);
+        cache.put(first, 128, new byte[10]);
+        cache.put(second, 64, new byte[10]);
+        cache.invalidate(first);
+
+        assertFalse(cache.contains(first, 64));
+        assertFalse(cache.contains(first, 128));
+        assertTrue(cache.contains(second, 64));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void contains_followsEvictions() {
+        TestCache cache = new TestCache(25);
+        cache.put(first, 64, new byte[10]);
+        cache.put(first, 128, new byte[10]);
+        cache.put(second, 64, new byte[10]);
+
+        assertFalse(cache.contains(first, 64));
+        assertTrue(cache.contains(second, 64));
+        cache.evictAll();
+        assertFalse(cache.contains(second, 64));
+    }
+
+    @Test
+    public void counters_countHitsAndMisses() {
+        TestCache cache = new TestCache(10000);
+        cache.put(first, 64, new byte[10]);
+        cache.get(first, 64);
+        cache.get(first, 128);
+        cache.get(second, 64);
+        // contains does not count
+        cache.contains(first, 64);
+
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    private File write(String name, int length) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), new byte[length]);
+        return file;
+    }
+
+    private static class TestCache extends FileKeyedCache<byte[]> {
+        private TestCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(byte[] value) {
+            return value.length;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.junit.Assert.*;
+
+public class FileLocksTest {
+
+    @Test
+    public void samePath_hasSameLock() {
+        File file = new File("user_image");
+        assertSame(FileLocks.forFile(file), FileLocks.forFile(new File(file.getAbsolutePath())));
+    }
+
+    @Test
+    public void filesOfSameDirectory_areSpread() {
+        Set<ReadWriteLock> locks = new HashSet<>();
+        for (int i = 0; i < 64; i++) {
+            locks.add(FileLocks.forFile(new File("user_image_variants", String.valueOf(48 + i))));
+        }
+        assertTrue(locks.size() > 16);
+    }
+}
@@ -0,0 +1,45 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageFingerprintTest {
+    private static final int[] NO_VARIANTS = new int[0];
+
+    @Test
+    public void checksum_dependsOnPixels() {
+        int[] pixels = {0xFF000000, 0xFFFFFFFF, 0x80123456, 0};
+        int[] changed = pixels.clone();
+        changed[2] = 0x80123457;
+        assertEquals(checksum(pixels), checksum(pixels.clone()));
+        assertNotEquals(checksum(pixels), checksum(changed));
+    }
+
+    @Test
+    public void checksum_isIndependentOfRowSplit() {
+        int[] pixels = {1, 2, 3, 4, 5, 6};
+        ImageFingerprint.PixelsChecksum rows = new ImageFingerprint.PixelsChecksum();
+        rows.update(pixels, 0, 3);
+        rows.update(pixels, 3, 3);
+        assertEquals(checksum(pixels), rows.getValue());
+    }
+
+    @Test
+    public void fingerprint_includesSaveSettings() {
+        ImageFingerprint fingerprint = new ImageFingerprint(10, 20, 42, SaveOptions.DEFAULT, NO_VARIANTS, 0);
+        SaveOptions jpeg = new SaveOptions.Builder().setFormat(SaveOptions.Format.JPEG).build();
+
+        assertEquals(fingerprint, new ImageFingerprint(10, 20, 42, new SaveOptions.Builder().build(), NO_VARIANTS, 0));
+        assertNotEquals(fingerprint, new ImageFingerprint(20, 10, 42, SaveOptions.DEFAULT, NO_VARIANTS, 0));
+        assertNotEquals(fingerprint, new ImageFingerprint(10, 20, 42, jpeg, NO_VARIANTS, 0));
+        assertNotEquals(fingerprint, new ImageFingerprint(10, 20, 42, SaveOptions.DEFAULT, new int[]{48}, 0));
+        assertNotEquals(fingerprint, new ImageFingerprint(10, 20, 42, SaveOptions.DEFAULT, NO_VARIANTS, 96));
+    }
+
+    private static long checksum(int[] pixels) {
+        ImageFingerprint.PixelsChecksum checksum = new ImageFingerprint.PixelsChecksum();
+        checksum.update(pixels, 0, pixels.length);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,134 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of ImagePipeline executed on the JVM with direct and manually drained executors.
+ */
+public class ImagePipelineTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void result_isDelivered() {
+        ImagePipeline pipeline = new ImagePipeline(DIRECT, DIRECT);
+        RecordingCallback callback = new RecordingCallback();
+        pipeline.submit(value("image"), callback);
+        assertEquals(1, callback.results.size());
+        assertEquals("image", callback.results.get(0));
+    }
+
+    @Test
+    public void failure_isDelivered() {
+        ImagePipeline pipeline = new ImagePipeline(DIRECT, DIRECT);
+        RecordingCallback callback = new RecordingCallback();
+        pipeline.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("decode failed");
+            }
+        }, callback);
+        assertTrue(callback.results.isEmpty());
+        assertEquals(1, callback.errors.size());
+    }
+
+    @Test
+    public void staleResult_isCancelledWhenTargetIsRebound() {
+        QueueExecutor callbackExecutor = new QueueExecutor();
+        ImagePipeline pipeline = new ImagePipeline(DIRECT, callbackExecutor);
+        Object imageView = new Object();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        ImagePipeline.Request firstRequest = pipeline.submit(imageView, value("old"), first);
+        pipeline.submit(imageView, value("new"), second);
+        callbackExecutor.drain();
+
+        assertTrue(firstRequest.isCancelled());
+        assertTrue(first.results.isEmpty());
+        assertEquals(1, second.results.size());
+        assertEquals("new", second.results.get(0));
+    }
+
+    @Test
+    public void cancelledTarget_doesNotRunJob() {
+        QueueExecutor workerExecutor = new QueueExecutor();
+        ImagePipeline pipeline = new ImagePipeline(workerExecutor, DIRECT);
+        Object imageView = new Object();
+        RecordingCallback callback = new RecordingCallback();
+        final boolean[] executed = {false};
+        pipeline.submit(imageView, new Callable<String>() {
+            @Override
+            public String call() {
+                executed[0] = true;
+                return "image";
+            }
+        }, callback);
+        pipeline.cancel(imageView);
+        workerExecutor.drain();
+
+        assertFalse(executed[0]);
+        assertTrue(callback.results.isEmpty());
+    }
+
+    @Test
+    public void target_isBoundUntilDelivery() {
+        QueueExecutor callbackExecutor = new QueueExecutor();
+        ImagePipeline pipeline = new ImagePipeline(DIRECT, callbackExecutor);
+        Object imageView = new Object();
+        pipeline.submit(imageView, value("image"), new RecordingCallback());
+
+        assertTrue(pipeline.isBound(imageView));
+        callbackExecutor.drain();
+        assertFalse(pipeline.isBound(imageView));
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private static class RecordingCallback implements ImagePipeline.Callback<String> {
+        private final List<String> results = new ArrayList<>();
+        private final List<Exception> errors = new ArrayList<>();
+
+        @Override
+        public void onSuccess(String result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            errors.add(e);
+        }
+    }
+
+    private static class QueueExecutor implements Executor {
+        private final List<Runnable> commands = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            commands.add(command);
+        }
+
+        private void drain() {
+            while (!commands.isEmpty()) {
+                commands.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.gallery.imageselector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ImageStoreTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("image_store").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void put_replacesImageWithSameKey() throws IOException {
+        ImageStore store = new ImageStore(directory, 10000);
+        store.put("contact/1", writer(100, (byte) 1));
+        File file = store.put("contact/1", writer(200, (byte) 2));
+
+        assertEquals(file, store.get("contact/1"));
+        assertEquals(200, file.length());
+        assertEquals(200, store.size());
+        assertNull(store.get("contact/2"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws IOException {
+        ImageStore store = new ImageStore(directory, 250);
+        store.put("a", writer(100, (byte) 0));
+        store.put("b", writer(100, (byte) 0));
+        store.get("a");
+        store.put("c", writer(100, (byte) 0));
+
+        assertEquals(Arrays.asList("a", "c"), store.keys());
+        assertEquals(200, store.size());
+        assertFalse(store.fileOf("b").exists());
+    }
+
+    @Test
+    public void put_keepsImageLargerThanMaxSize() throws IOException {
+        ImageStore store = new ImageStore(directory, 50);
+        store.put("a", writer(40, (byte) 0));
+        store.put("b", writer(100, (byte) 0));
+
+        assertEquals(Arrays.asList("b"), store.keys());
+    }
+
+    @Test
+    public void failedWrite_keepsPreviousImage() throws IOException {
+        ImageStore store = new ImageStore(directory, 10000);
+        store.put("a", writer(100, (byte) 1));
+        try {
+            store.put("a", new AtomicFiles.Writer() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    outputStream.write(new byte[10]);
+                    throw new IOException("interrupted");
+                }
+            });
+            fail("the write should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(100, store.get("a").length());
+        assertEquals(2, directory.list().length);  // the image and the index
+    }
+
+    @Test
+    public void index_isReloaded() throws IOException {
+        ImageStore store = new ImageStore(directory, 10000);
+        store.put("a", writer(100, (byte) 0));
+        store.put("b", writer(50, (byte) 0));
+        store.remove("a");
+        // a file left by an interrupted write
+        Files.write(new File(directory, "orphan.1.tmp").toPath(), new byte[10]);
+
+        ImageStore reloaded = new ImageStore(directory, 10000);
+        assertEquals(Arrays.asList("b"), reloaded.keys());
+        assertEquals(50, reloaded.size());
+        assertFalse(new File(directory, "orphan.1.tmp").exists());
+    }
+
+    private static AtomicFiles.Writer writer(final int size, final byte value) {
+        return new AtomicFiles.Writer() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                byte[] data = new byte[size];
+                Arrays.fill(data, value);
+                outputStream.write(data);
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void matrix_mapsImageToOrigin() {
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            float[] values = Orientation.matrixValues(orientation, WIDTH, HEIGHT, 1);
+            boolean swap = Orientation.swapsDimensions(orientation);
+            float[] corner1 = map(values, 0, 0);
+            float[] corner2 = map(values, WIDTH, HEIGHT);
+            assertEquals(0, Math.min(corner1[0], corner2[0]), 0.001);
+            assertEquals(0, Math.min(corner1[1], corner2[1]), 0.001);
+            assertEquals(swap ? HEIGHT : WIDTH, Math.max(corner1[0], corner2[0]), 0.001);
+            assertEquals(swap ? WIDTH : HEIGHT, Math.max(corner1[1], corner2[1]), 0.001);
+        }
+    }
+
+    @Test
+    public void sourceRect_isInverseOfMatrix() {
+        for (int orientation = Orientation.NORMAL; orientation <= Orientation.ROTATE_270; orientation++) {
+            float[] values = Orientation.matrixValues(orientation, WIDTH, HEIGHT, 1);
+            // source rectangle 10,20 - 50,80 mapped to the oriented coordinates and back
+            float[] first = map(values, 10, 20);
+            float[] second = map(values, 50, 80);
+            int[] source = Orientation.toSourceRect(orientation, WIDTH, HEIGHT,
+                    Math.round(Math.min(first[0], second[0])), Math.round(Math.min(first[1], second[1])),
+                    Math.round(Math.max(first[0], second[0])), Math.round(Math.max(first[1], second[1])));
+            assertEquals(10, source[0]);
+            assertEquals(20, source[1]);
+            assertEquals(50, source[2]);
+            assertEquals(80, source[3]);
+        }
+    }
+
+    @Test
+    public void scale_isAppliedWithOrientation() {
+        float[] values = Orientation.matrixValues(Orientation.ROTATE_90, WIDTH, HEIGHT, 0.5f);
+        float[] corner = map(values, WIDTH, HEIGHT);
+        assertEquals(0, corner[0], 0.001);
+        assertEquals(WIDTH / 2f, corner[1], 0.001);
+    }
+
+    private static float[] map(float[] values, float x, float y) {
+        return new float[]{values[0] * x + values[1] * y + values[2], values[3] * x + values[4] * y + values[5]};
+    }
+}
@@ -0,0 +1,40 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QualitySearchTest {
+    // fake encoder whose output grows linearly with the quality
+    private static final QualitySearch.Encoder<Integer> LINEAR = new QualitySearch.Encoder<Integer>() {
+        @Override
+        public Integer encode(int quality) {
+            return quality * 1000;
+        }
+
+        @Override
+        public long sizeOf(Integer output) {
+            return output;
+        }
+    };
+
+    @Test
+    public void maxQuality_isUsedWhenItFits() throws Exception {
+        QualitySearch.Attempt<Integer> attempt = QualitySearch.search(40, 90, 100000, LINEAR);
+        assertEquals(90, attempt.quality);
+        assertEquals(1, attempt.attempts);
+    }
+
+    @Test
+    public void highestQualityWithinBudget_isFound() throws Exception {
+        QualitySearch.Attempt<Integer> attempt = QualitySearch.search(40, 90, 62500, LINEAR);
+        assertEquals(62, attempt.quality);
+        assertTrue(attempt.size <= 62500);
+    }
+
+    @Test
+    public void minQuality_isUsedWhenNothingFits() throws Exception {
+        QualitySearch.Attempt<Integer> attempt = QualitySearch.search(40, 90, 1000, LINEAR);
+        assertEquals(40, attempt.quality);
+    }
+}
@@ -0,0 +1,68 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestCodeRegistryTest {
+    private static final int BASE = 0x4000;
+
+    @Test
+    public void acquire_usesPreferredPair() {
+        RequestCodeRegistry registry = new RequestCodeRegistry(BASE);
+        assertEquals(BASE + 6, registry.acquire(3, new TestOwner()));
+    }
+
+    @Test
+    public void acquire_neverAssignsUsedCodes() {
+        RequestCodeRegistry registry = new RequestCodeRegistry(BASE);
+        TestOwner first = new TestOwner();
+        TestOwner second = new TestOwner();
+        TestOwner third = new TestOwner();
+        int firstCode = registry.acquire(3, first);
+        // the same pair modulo MAX_PAIRS, es. two ImageView with ids that differ only in the upper bits
+        int secondCode = registry.acquire(3 + RequestCodeRegistry.MAX_PAIRS, second);
+        int thirdCode = registry.acquire(4, third);
+
+        assertEquals(BASE + 8, secondCode);
+        assertEquals(BASE + 10, thirdCode);
+        assertNotEquals(firstCode, secondCode);
+    }
+
+    @Test
+    public void acquire_reusesPairOfReleasedOwner() {
+        RequestCodeRegistry registry = new RequestCodeRegistry(BASE);
+        TestOwner destroyed = new TestOwner();
+        int code = registry.acquire(3, destroyed);
+        destroyed.released = true;
+        // es. the GalleryImageSelector of the recreated activity
+        assertEquals(code, registry.acquire(3, new TestOwner()));
+    }
+
+    @Test
+    public void replace_rejectsCodesOfAnotherOwner() {
+        RequestCodeRegistry registry = new RequestCodeRegistry(BASE);
+        TestOwner first = new TestOwner();
+        TestOwner second = new TestOwner();
+        int firstCode = registry.acquire(0, first);
+        int secondCode = registry.acquire(1, second);
+        try {
+            registry.replace(secondCode, secondCode + 1, firstCode + 1, 100, second);
+            fail("the code of the first owner should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        registry.replace(secondCode, secondCode + 1, 100, 101, second);
+        assertEquals(secondCode, registry.acquire(1, new TestOwner()));
+    }
+
+    private static class TestOwner implements RequestCodeRegistry.Owner {
+        private boolean released = false;
+
+        @Override
+        public boolean isReleased() {
+            return released;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleSizeTest {
+    @Test
+    public void sampleSize_keepsImageLargerThanTarget() {
+        // 12 MP photo shown in a 200px avatar
+        assertEquals(8, SampleSize.calculate(4000, 3000, 200, 200));
+        assertEquals(16, SampleSize.calculate(4000, 3000, 100, 100));
+        assertEquals(1, SampleSize.calculate(300, 300, 200, 200));
+    }
+
+    @Test
+    public void sampleSize_withoutTarget_isOne() {
+        assertEquals(1, SampleSize.calculate(4000, 3000, 0, 0));
+        assertEquals(1, SampleSize.calculate(0, 0, 200, 200));
+    }
+
+    @Test
+    public void scaleToCover_neverScalesUp() {
+        assertEquals(1, SampleSize.scaleToCover(100, 100, 200, 200), 0);
+        assertEquals(0.5f, SampleSize.scaleToCover(400, 400, 200, 200), 0.0001);
+        // the shortest side must cover the target
+        assertEquals(200f / 300, SampleSize.scaleToCover(500, 300, 200, 200), 0.0001);
+    }
+}
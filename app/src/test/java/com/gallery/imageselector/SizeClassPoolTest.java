@@ -0,0 +1,83 @@
+package com.gallery.imageselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SizeClassPoolTest {
+
+    @Test
+    public void sizeClass_isSmallestPowerOfTwo() {
+        assertEquals(0, SizeClassPool.sizeClassOf(1));
+        assertEquals(10, SizeClassPool.sizeClassOf(1024));
+        assertEquals(11, SizeClassPool.sizeClassOf(1025));
+    }
+
+    @Test
+    public void acquire_returnsLargeEnoughObject() {
+        TestPool pool = new TestPool(100000);
+        Buffer small = new Buffer(1000);
+        Buffer large = new Buffer(4000);
+        pool.release(small);
+        pool.release(large);
+
+        assertSame(large, pool.acquire(3000, null));
+        assertNull(pool.acquire(3000, null));
+        assertSame(small, pool.acquire(900, null));
+        assertEquals(0, pool.size());
+        assertEquals(2, pool.hitCount());
+        assertEquals(1, pool.missCount());
+    }
+
+    @Test
+    public void acquire_ignoresMuchLargerObjects() {
+        TestPool pool = new TestPool(100000);
+        pool.release(new Buffer(64000));
+        assertNull(pool.acquire(1000, null));
+    }
+
+    @Test
+    public void release_evictsLeastRecentlyReleased() {
+        TestPool pool = new TestPool(5000);
+        Buffer first = new Buffer(2000);
+        Buffer second = new Buffer(2000);
+        Buffer third = new Buffer(2000);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(4000, pool.size());
+        assertEquals(1, pool.evicted.size());
+        assertSame(first, pool.evicted.get(0));
+        assertFalse(pool.release(new Buffer(6000)));
+    }
+
+    private static class Buffer {
+        private final int capacity;
+
+        private Buffer(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private static class TestPool extends SizeClassPool<Buffer> {
+        private final List<Buffer> evicted = new ArrayList<>();
+
+        private TestPool(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int capacityOf(Buffer buffer) {
+            return buffer.capacity;
+        }
+
+        @Override
+        protected void onEvicted(Buffer buffer) {
+            evicted.add(buffer);
+        }
+    }
+}
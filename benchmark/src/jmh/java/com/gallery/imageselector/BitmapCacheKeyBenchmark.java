@@ -0,0 +1,92 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups of BitmapCache: the key (path, last modified time, length and target size, so two stats of the file) and the LRU cache.
+ * BitmapCache depends on android.graphics.Bitmap, so here its FileKeyedCache is measured with byte arrays of the same size of the bitmaps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitmapCacheKeyBenchmark {
+    private static final int TARGET_SIZE = 256;
+    private static final int BITMAP_BYTES = TARGET_SIZE * TARGET_SIZE * 4;
+    @Param({"16", "256"})
+    public int files;
+    private File directory;
+    private File[] savedFiles;
+    private FileKeyedCache<byte[]> cache;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark_cache").toFile();
+        savedFiles = new File[files];
+        // the cache holds half of the files, so the lookups are both hits and misses
+        cache = new FileKeyedCache<byte[]>(files / 2 * BITMAP_BYTES) {
+            @Override
+            protected int sizeOf(byte[] value) {
+                return value.length;
+            }
+        };
+        for (int i = 0; i < files; i++) {
+            savedFiles[i] = new File(directory, "user_image_" + i);
+            Files.write(savedFiles[i].toPath(), new byte[1024 + i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : savedFiles) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public String createKey() {
+        return FileKeyedCache.createKey(savedFiles[nextIndex()], TARGET_SIZE);
+    }
+
+    // the lookup done by GalleryImageSelector.getBitmapFromFile: get (key with the stats of the file, then the cache), put on a miss
+    @Benchmark
+    public byte[] getOrPut() {
+        File file = savedFiles[nextIndex()];
+        byte[] bitmap = cache.get(file, TARGET_SIZE);
+        if (bitmap == null) {
+            bitmap = new byte[BITMAP_BYTES];
+            cache.put(file, TARGET_SIZE, bitmap);
+        }
+        return bitmap;
+    }
+
+    @Benchmark
+    public byte[] lookupFromFile() {
+        return cache.get(savedFiles[nextIndex()], TARGET_SIZE);
+    }
+
+    // the invalidation done at every save, it scans the keys of the cache
+    @Benchmark
+    public void invalidate() {
+        cache.invalidate(savedFiles[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % files;
+        return next;
+    }
+}
@@ -0,0 +1,79 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy of a picked image into the cache: the old 1 KB byte[] loop of copyImageUriIntoFile against the two strategies of ChannelCopier
+ * (transferTo for the files, a direct buffer for the pipes and the streams).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChannelCopierBenchmark {
+    @Param({"262144", "4194304", "16777216"})
+    public int size;
+    private File source;
+    private File destination;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        source = File.createTempFile("benchmark_source", ".jpg");
+        destination = File.createTempFile("benchmark_destination", ".jpg");
+        Files.write(source.toPath(), data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        destination.delete();
+    }
+
+    // the copy loop used by copyImageUriIntoFile before ChannelCopier (it writes the whole buffer even after a partial read)
+    @Benchmark
+    public long legacyLoop() throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(source));
+             BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(destination, false))) {
+            byte[] buf = new byte[1024];
+            while (bis.read(buf) != -1) {
+                bos.write(buf);
+            }
+        }
+        return destination.length();
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        try (FileInputStream input = new FileInputStream(source); FileOutputStream output = new FileOutputStream(destination)) {
+            return ChannelCopier.copy(input.getChannel(), output.getChannel(), input.getChannel().size(), null);
+        }
+    }
+
+    @Benchmark
+    public long directBuffer() throws IOException {
+        try (InputStream input = new FileInputStream(source); FileOutputStream output = new FileOutputStream(destination)) {
+            return ChannelCopier.copy(Channels.newChannel(input), output.getChannel(), -1, null);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The computations done before every decode: inSampleSize and final scale, and the matrix and the source rectangle of the EXIF orientation.
+ * Each benchmark processes IMAGES images of random sizes (from a thumbnail to a 48 MP photo) and orientations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeometryBenchmark {
+    private static final int IMAGES = 1024;
+    private final int[] widths = new int[IMAGES];
+    private final int[] heights = new int[IMAGES];
+    private final int[] targets = new int[IMAGES];
+    private final int[] orientations = new int[IMAGES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < IMAGES; i++) {
+            widths[i] = 64 + random.nextInt(8000);
+            heights[i] = 64 + random.nextInt(6000);
+            targets[i] = 48 + random.nextInt(1024);
+            orientations[i] = Orientation.NORMAL + random.nextInt(Orientation.ROTATE_270);
+        }
+    }
+
+    @Benchmark
+    public void sampleSize(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            int sample = SampleSize.calculate(widths[i], heights[i], targets[i], targets[i]);
+            blackhole.consume(sample);
+            blackhole.consume(SampleSize.scaleToCover(widths[i] / sample, heights[i] / sample, targets[i], targets[i]));
+        }
+    }
+
+    @Benchmark
+    public void orientationMatrix(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            blackhole.consume(Orientation.matrixValues(orientations[i], widths[i], heights[i], 0.5f));
+        }
+    }
+
+    @Benchmark
+    public void sourceRect(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            int side = Math.min(widths[i], heights[i]);
+            boolean swap = Orientation.swapsDimensions(orientations[i]);
+            int orientedWidth = swap ? heights[i] : widths[i];
+            int orientedHeight = swap ? widths[i] : heights[i];
+            int left = (orientedWidth - side) / 2;
+            int top = (orientedHeight - side) / 2;
+            blackhole.consume(Orientation.toSourceRect(orientations[i], widths[i], heights[i], left, top, left + side, top + side));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups of the ImageStore (in memory) and its atomic writes (temporary file, sync and rename, plus the index) with hundreds of images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageStoreBenchmark {
+    private static final int IMAGE_BYTES = 8 * 1024;
+    @Param({"100", "500"})
+    public int images;
+    private File directory;
+    private ImageStore store;
+    private final AtomicFiles.Writer writer = new AtomicFiles.Writer() {
+        private final byte[] image = new byte[IMAGE_BYTES];
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            outputStream.write(image);
+        }
+    };
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark_store").toFile();
+        // the store is full, so every new write evicts the least recently used image
+        store = new ImageStore(directory, (long) images * IMAGE_BYTES);
+        for (int i = 0; i < images; i++) {
+            store.put("contact_" + i, writer);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.clear();
+        new File(directory, "index").delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public File get() {
+        next = (next + 1) % images;
+        return store.get("contact_" + next);
+    }
+
+    @Benchmark
+    public File put() throws IOException {
+        next = (next + 1) % (images * 2);
+        return store.put("contact_" + next, writer);
+    }
+
+    // the first access of the process: load of the index and the single scan of the directory
+    @Benchmark
+    public long loadIndex() {
+        return new ImageStore(directory, (long) images * IMAGE_BYTES).size();
+    }
+}
@@ -0,0 +1,81 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * The search of the quality that respects the maximum number of bytes of SaveOptions. Bitmap.compress is not available on the JVM,
+ * so the encoder is replaced by a codec with the same behavior: the pixels are quantized more at lower qualities and then deflated,
+ * so the size grows with the quality and every attempt has a real cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QualitySearchBenchmark {
+    private static final int SIDE = 256;
+    // maximum bytes of the search, 0 means a single encode at the maximum quality (the behavior without setMaxBytes)
+    @Param({"0", "131072", "65536"})
+    public long maxBytes;
+    private byte[] pixels;
+    private QualitySearch.Encoder<ByteArrayOutputStream> encoder;
+
+    @Setup
+    public void setUp() {
+        // a smooth gradient with noise, compressible like a photo
+        Random random = new Random(42);
+        pixels = new byte[SIDE * SIDE * 4];
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = i / 4;
+            pixels[i] = (byte) ((pixel % SIDE + pixel / SIDE) / 2 + random.nextInt(16));
+        }
+        encoder = new QualitySearch.Encoder<ByteArrayOutputStream>() {
+            private final byte[] quantized = new byte[pixels.length];
+            private final byte[] buffer = new byte[64 * 1024];
+
+            @Override
+            public ByteArrayOutputStream encode(int quality) {
+                // from 1 bit (quality 0) to 8 bits (quality 100) for each channel
+                int mask = 0xFF << (7 - quality * 7 / 100);
+                for (int i = 0; i < pixels.length; i++) {
+                    quantized[i] = (byte) (pixels[i] & mask);
+                }
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                deflater.setInput(quantized);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+                deflater.end();
+                return output;
+            }
+
+            @Override
+            public long sizeOf(ByteArrayOutputStream output) {
+                return output.size();
+            }
+        };
+    }
+
+    @Benchmark
+    public int search() throws Exception {
+        QualitySearch.Attempt<ByteArrayOutputStream> attempt;
+        if (maxBytes > 0) {
+            attempt = QualitySearch.search(40, 90, maxBytes, encoder);
+        } else {
+            attempt = QualitySearch.search(90, 90, Long.MAX_VALUE, encoder);
+        }
+        return attempt.quality;
+    }
+}
@@ -0,0 +1,62 @@
+package com.gallery.imageselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The acquire and release of the BitmapPool (through its SizeClassPool), with byte arrays in place of the bitmaps, against the allocation
+ * of a new array every time (what the decoders do without inBitmap).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeClassPoolBenchmark {
+    private static final int REQUESTS = 256;
+    private final int[] requiredBytes = new int[REQUESTS];
+    private SizeClassPool<byte[]> pool;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < REQUESTS; i++) {
+            // from a 48 px icon to a 1024 px image
+            int side = 48 + random.nextInt(1024 - 48);
+            requiredBytes[i] = side * side * 4;
+        }
+        pool = new SizeClassPool<byte[]>(64 * 1024 * 1024) {
+            @Override
+            protected int capacityOf(byte[] buffer) {
+                return buffer.length;
+            }
+
+            @Override
+            protected void onEvicted(byte[] buffer) {
+            }
+        };
+    }
+
+    @Benchmark
+    public byte[] acquireAndRelease() {
+        int bytes = requiredBytes[next = (next + 1) % REQUESTS];
+        byte[] buffer = pool.acquire(bytes, null);
+        if (buffer == null) {
+            buffer = new byte[bytes];
+        }
+        pool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] allocate() {
+        return new byte[requiredBytes[next = (next + 1) % REQUESTS]];
+    }
+}